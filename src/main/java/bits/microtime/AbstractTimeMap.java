@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.util.*;
+
+
+/**
+ * Base for interval maps that assign values to disjoint half-open time ranges.
+ * Ranges are kept as sorted start/stop pairs in primitive arrays, as in
+ * CompactTimeSet. Subclasses store values in a parallel array and implement
+ * the hooks that copy and compare them, so specializations for primitive
+ * values avoid boxing.
+ * <p>
+ * Entries are indexed in time order. Indices remain valid until the map
+ * is next modified.
+ *
+ * @author Philip DeCamp
+ */
+abstract class AbstractTimeMap {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    long[] mStarts;
+    long[] mStops;
+    int    mSize = 0;
+
+
+    AbstractTimeMap() {
+        mStarts = new long[DEFAULT_CAPACITY];
+        mStops  = new long[DEFAULT_CAPACITY];
+        resizeValues( DEFAULT_CAPACITY );
+    }
+
+    /**
+     * Removes all values from [startMicros, stopMicros), trimming entries that
+     * extend past either end.
+     *
+     * @return true iff map was modified.
+     */
+    public boolean remove( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return false;
+        }
+        int i = firstIndexAfter( startMicros );
+        if( i == mSize || mStarts[i] >= stopMicros ) {
+            return false;
+        }
+        cut( startMicros, stopMicros, false );
+        return true;
+    }
+
+
+    public void clear() {
+        clearValues( 0 );
+        mSize = 0;
+    }
+
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @return number of entries.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return true iff any value is assigned at {@code timeMicro}.
+     */
+    public boolean containsTime( long timeMicro ) {
+        return indexAt( timeMicro ) >= 0;
+    }
+
+    /**
+     * @return index of entry containing {@code timeMicro}, or -1 if none.
+     */
+    public int indexAt( long timeMicro ) {
+        int i = firstIndexAfter( timeMicro );
+        return i < mSize && mStarts[i] <= timeMicro ? i : -1;
+    }
+
+    /**
+     * @return index of first entry that stops after {@code timeMicro}, or {@code size()} if none.
+     */
+    public int firstIndexAfter( long timeMicro ) {
+        int lo = 0;
+        int hi = mSize;
+        while( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if( mStops[mid] > timeMicro ) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+
+    public long startAt( int index ) {
+        checkIndex( index );
+        return mStarts[index];
+    }
+
+
+    public long stopAt( int index ) {
+        checkIndex( index );
+        return mStops[index];
+    }
+
+    /**
+     * @return TimeSet of all times with an assigned value.
+     */
+    public TimeSet coverage() {
+        return TimeSet.fromArrays( mStarts, mStops, 0, mSize );
+    }
+
+    /**
+     * Grows or shrinks value storage to {@code capacity}, preserving existing values.
+     */
+    abstract void resizeValues( int capacity );
+
+    /**
+     * Copies {@code len} values, as System.arraycopy.
+     */
+    abstract void copyValues( int src, int dst, int len );
+
+    /**
+     * Releases values in [off, mSize) after entries are removed.
+     */
+    abstract void clearValues( int off );
+
+
+    abstract boolean valuesEqual( int a, int b );
+
+    /**
+     * Clears [startMicros, stopMicros). If {@code insert}, leaves an entry for that
+     * range in place for the caller to assign a value to.
+     *
+     * @return index of inserted entry, or of the first entry after the cleared range.
+     */
+    int cut( long startMicros, long stopMicros, boolean insert ) {
+        int i = firstIndexAfter( startMicros );
+        int j = i;
+        while( j < mSize && mStarts[j] < stopMicros ) {
+            j++;
+        }
+
+        boolean keepLeft  = i < j && mStarts[i] < startMicros;
+        boolean keepRight = i < j && mStops[j - 1] > stopMicros;
+        int headEnd  = keepLeft ? i + 1 : i;
+        int tailFrom = keepRight ? j - 1 : j;
+
+        if( tailFrom < headEnd ) {
+            // Range lies inside one entry, which must be split in two.
+            shift( i, 1 );
+            tailFrom = i + 1;
+        }
+        if( keepLeft ) {
+            mStops[headEnd - 1] = startMicros;
+        }
+        if( keepRight ) {
+            mStarts[tailFrom] = stopMicros;
+        }
+
+        int slots = insert ? 1 : 0;
+        shift( tailFrom, headEnd + slots - tailFrom );
+        if( insert ) {
+            mStarts[headEnd] = startMicros;
+            mStops[headEnd]  = stopMicros;
+        }
+        return headEnd;
+    }
+
+    /**
+     * Merges entry {@code index} with neighbors that abut it and hold equal values.
+     */
+    void coalesce( int index ) {
+        if( index + 1 < mSize && mStops[index] == mStarts[index + 1] && valuesEqual( index, index + 1 ) ) {
+            mStops[index] = mStops[index + 1];
+            shift( index + 2, -1 );
+        }
+        if( index > 0 && mStops[index - 1] == mStarts[index] && valuesEqual( index - 1, index ) ) {
+            mStops[index - 1] = mStops[index];
+            shift( index + 1, -1 );
+        }
+    }
+
+
+    void checkIndex( int index ) {
+        if( index < 0 || index >= mSize ) {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + mSize );
+        }
+    }
+
+    /**
+     * Moves entries [from, mSize) by {@code offset} positions.
+     */
+    private void shift( int from, int offset ) {
+        if( offset == 0 ) {
+            return;
+        }
+
+        int newSize = mSize + offset;
+        if( newSize > mStarts.length ) {
+            int cap = Math.max( newSize, mStarts.length * 2 );
+            mStarts = Arrays.copyOf( mStarts, cap );
+            mStops  = Arrays.copyOf( mStops, cap );
+            resizeValues( cap );
+        }
+
+        int len = mSize - from;
+        System.arraycopy( mStarts, from, mStarts, from + offset, len );
+        System.arraycopy( mStops, from, mStops, from + offset, len );
+        copyValues( from, from + offset, len );
+
+        if( offset < 0 ) {
+            clearValues( newSize );
+        }
+        mSize = newSize;
+    }
+
+}
@@ -0,0 +1,571 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.lang.reflect.Array;
+import java.util.*;
+
+
+/**
+ * Array-backed alternative to TimeSet. Merges and splits timeblocks the same way,
+ * but stores blocks as sorted start/stop pairs in two primitive arrays and finds
+ * them with binary search. Costs about 16 bytes per block instead of a tree node,
+ * and range scans walk contiguous memory.
+ * <p>
+ * Lookups are O(log n). Insertions and removals that change the number of blocks
+ * shift the tail of the arrays, so CompactTimeSet is best for sets that are read
+ * far more than they are modified, or modified mostly near the end.
+ *
+ * @author Philip DeCamp
+ */
+public class CompactTimeSet extends AbstractSet<TimeBlock> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] mStarts;
+    private long[] mStops;
+    private int    mSize     = 0;
+    private int    mModCount = 0;
+
+
+    public CompactTimeSet() {
+        this( DEFAULT_CAPACITY );
+    }
+
+
+    public CompactTimeSet( int initialCapacity ) {
+        initialCapacity = Math.max( 1, initialCapacity );
+        mStarts = new long[initialCapacity];
+        mStops  = new long[initialCapacity];
+    }
+
+
+    public CompactTimeSet( CompactTimeSet copy ) {
+        int cap = Math.max( 1, copy.mSize + ( copy.mSize >> 3 ) );
+        mStarts = Arrays.copyOf( copy.mStarts, cap );
+        mStops  = Arrays.copyOf( copy.mStops, cap );
+        mSize   = copy.mSize;
+    }
+
+
+    @Override
+    public boolean add( TimeBlock tb ) {
+        if( tb == null ) {
+            return false;
+        }
+        return add( tb.startMicros(), tb.stopMicros() );
+    }
+
+
+    public boolean add( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return false;
+        }
+
+        // Blocks that overlap or touch the new block are merged with it.
+        int lo = firstStopAtOrAfter( startMicros );
+        int hi = firstStartAfter( stopMicros );
+
+        if( lo < hi ) {
+            if( mStarts[lo] <= startMicros && mStops[lo] >= stopMicros ) {
+                // Do nothing if TimeBlock is completely contained in set.
+                return false;
+            }
+
+            startMicros = Math.min( startMicros, mStarts[lo] );
+            stopMicros  = Math.max( stopMicros, mStops[hi - 1] );
+        }
+
+        replace( lo, hi, 1 );
+        mStarts[lo] = startMicros;
+        mStops[lo]  = stopMicros;
+        return true;
+    }
+
+
+    @Override
+    public boolean remove( Object timeBlock ) {
+        if( !( timeBlock instanceof TimeBlock ) ) {
+            return false;
+        }
+        TimeBlock tb = (TimeBlock)timeBlock;
+        return remove( tb.startMicros(), tb.stopMicros() );
+    }
+
+
+    public boolean remove( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return false;
+        }
+
+        int lo = firstStopAfter( startMicros );
+        int hi = firstStartAtOrAfter( stopMicros );
+        if( lo >= hi ) {
+            return false;
+        }
+
+        // Keep portions of the first and last blocks that fall outside the removed range.
+        boolean keepHead = mStarts[lo] < startMicros;
+        boolean keepTail = mStops[hi - 1] > stopMicros;
+        long headStart   = mStarts[lo];
+        long tailStop    = mStops[hi - 1];
+
+        replace( lo, hi, ( keepHead ? 1 : 0 ) + ( keepTail ? 1 : 0 ) );
+
+        int i = lo;
+        if( keepHead ) {
+            mStarts[i] = headStart;
+            mStops[i]  = startMicros;
+            i++;
+        }
+
+        if( keepTail ) {
+            mStarts[i] = stopMicros;
+            mStops[i]  = tailStop;
+        }
+
+        return true;
+    }
+
+
+    @Override
+    public boolean removeAll( Collection<?> c ) {
+        boolean ret = false;
+        for( Object obj : c ) {
+            ret |= remove( obj );
+        }
+
+        return ret;
+    }
+
+
+    @Override
+    public void clear() {
+        mSize = 0;
+        mModCount++;
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+
+    @Override
+    public boolean contains( Object timeBlock ) {
+        if( !( timeBlock instanceof TimeBlock ) ) {
+            return false;
+        }
+
+        TimeBlock tb = (TimeBlock)timeBlock;
+        return contains( tb.startMicros(), tb.stopMicros() );
+    }
+
+
+    public boolean contains( long timeMicro ) {
+        int i = firstStopAfter( timeMicro );
+        return i < mSize && mStarts[i] <= timeMicro;
+    }
+
+    /**
+     * Same semantics as {@link TimeSet#contains(long, long)}. An empty or inverted range
+     * is contained only if some block starts before {@code stopMicros} and stops after
+     * {@code startMicros}.
+     */
+    public boolean contains( long startMicros, long stopMicros ) {
+        int i = firstStopAfter( startMicros );
+        if( stopMicros <= startMicros ) {
+            return i < mSize && mStarts[i] < stopMicros;
+        }
+        return i < mSize && mStarts[i] <= startMicros && mStops[i] >= stopMicros;
+    }
+
+    /**
+     * @return the contiguous TimeBlock in this set containing timeMicro, or null if none.
+     */
+    public TimeBlock blockContaining( long timeMicro ) {
+        int i = firstStopAfter( timeMicro );
+        if( i < mSize && mStarts[i] <= timeMicro ) {
+            return new TimeBlock( mStarts[i], mStops[i] );
+        }
+        return null;
+    }
+
+    /**
+     * Returns the smallest TimeBlock that is a superset of this set.
+     *
+     * @return superset of set, or NULL if set is empty.
+     */
+    public TimeBlock range() {
+        if( mSize == 0 ) {
+            return null;
+        }
+        return new TimeBlock( mStarts[0], mStops[mSize - 1] );
+    }
+
+
+    @Override
+    public Iterator<TimeBlock> iterator() {
+        return new TimeIterator();
+    }
+
+
+    public List<TimeBlock> intersect( TimeBlock range ) {
+        return intersect( range.startMicros(), range.stopMicros() );
+    }
+
+
+    public List<TimeBlock> intersect( long startMicros, long stopMicros ) {
+        List<TimeBlock> ret = new ArrayList<TimeBlock>();
+
+        for( int i = firstStopAfter( startMicros ); i < mSize && mStarts[i] < stopMicros; i++ ) {
+            ret.add( new TimeBlock( Math.max( mStarts[i], startMicros ),
+                                    Math.min( mStops[i], stopMicros ) ) );
+        }
+
+        return ret;
+    }
+
+
+    public List<TimeBlock> subtractFrom( TimeBlock range ) {
+        return subtractFrom( range.startMicros(), range.stopMicros() );
+    }
+
+
+    public List<TimeBlock> subtractFrom( long startMicros, long stopMicros ) {
+        List<TimeBlock> ret = new ArrayList<TimeBlock>();
+        long lastStop = startMicros;
+
+        for( int i = firstStopAfter( startMicros ); i < mSize && mStarts[i] < stopMicros; i++ ) {
+            if( mStarts[i] > lastStop ) {
+                ret.add( new TimeBlock( lastStop, mStarts[i] ) );
+            }
+            lastStop = mStops[i];
+        }
+
+        if( lastStop < stopMicros ) {
+            ret.add( new TimeBlock( lastStop, stopMicros ) );
+        }
+
+        return ret;
+    }
+
+    /**
+     * Passes every block in this set, in order, to {@code visitor}.
+     * The set must not be modified during the visit.
+     *
+     * @return true if all blocks were visited, false if visitor stopped early.
+     */
+    public boolean visit( RangeVisitor visitor ) {
+        for( int i = 0; i < mSize; i++ ) {
+            if( !visitor.visit( mStarts[i], mStops[i] ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Allocation-free version of {@link #intersect(long, long)}.
+     *
+     * @see TimeSet#intersect(long, long, RangeVisitor)
+     */
+    public boolean intersect( long startMicros, long stopMicros, RangeVisitor visitor ) {
+        if( stopMicros <= startMicros ) {
+            return true;
+        }
+        for( int i = firstStopAfter( startMicros ); i < mSize && mStarts[i] < stopMicros; i++ ) {
+            if( !visitor.visit( Math.max( mStarts[i], startMicros ), Math.min( mStops[i], stopMicros ) ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Allocation-free version of {@link #intersect(long, long)}.
+     *
+     * @see TimeSet#intersect(long, long, long[], int)
+     */
+    public int intersect( long startMicros, long stopMicros, long[] out, int off ) {
+        if( stopMicros <= startMicros ) {
+            return 0;
+        }
+        final int cap = ( out.length - off ) / 2;
+        int count = 0;
+
+        for( int i = firstStopAfter( startMicros ); i < mSize && mStarts[i] < stopMicros; i++ ) {
+            if( count < cap ) {
+                out[off++] = Math.max( mStarts[i], startMicros );
+                out[off++] = Math.min( mStops[i], stopMicros );
+            }
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Allocation-free version of {@link #subtractFrom(long, long)}.
+     *
+     * @see TimeSet#subtractFrom(long, long, RangeVisitor)
+     */
+    public boolean subtractFrom( long startMicros, long stopMicros, RangeVisitor visitor ) {
+        long lastStop = startMicros;
+
+        for( int i = firstStopAfter( startMicros ); i < mSize && mStarts[i] < stopMicros; i++ ) {
+            if( mStarts[i] > lastStop && !visitor.visit( lastStop, mStarts[i] ) ) {
+                return false;
+            }
+            lastStop = mStops[i];
+        }
+
+        return lastStop >= stopMicros || visitor.visit( lastStop, stopMicros );
+    }
+
+    /**
+     * Allocation-free version of {@link #subtractFrom(long, long)}.
+     *
+     * @see TimeSet#subtractFrom(long, long, long[], int)
+     */
+    public int subtractFrom( long startMicros, long stopMicros, long[] out, int off ) {
+        final int cap = ( out.length - off ) / 2;
+        int count = 0;
+        long lastStop = startMicros;
+
+        for( int i = firstStopAfter( startMicros ); i < mSize && mStarts[i] < stopMicros; i++ ) {
+            if( mStarts[i] > lastStop ) {
+                if( count < cap ) {
+                    out[off++] = lastStop;
+                    out[off++] = mStarts[i];
+                }
+                count++;
+            }
+            lastStop = mStops[i];
+        }
+
+        if( lastStop < stopMicros ) {
+            if( count < cap ) {
+                out[off]     = lastStop;
+                out[off + 1] = stopMicros;
+            }
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Writes all blocks into {@code out} as start/stop pairs, beginning at {@code off}.
+     * If {@code out} is too small, as many blocks as fit are written.
+     *
+     * @return number of blocks in set, which may exceed the number written.
+     */
+    public int toArray( long[] out, int off ) {
+        final int n = Math.min( mSize, ( out.length - off ) / 2 );
+        for( int i = 0; i < n; i++ ) {
+            out[off++] = mStarts[i];
+            out[off++] = mStops[i];
+        }
+        return mSize;
+    }
+
+    /**
+     * Reduces the capacity of the backing arrays to the current number of blocks.
+     */
+    public void trimToSize() {
+        int cap = Math.max( 1, mSize );
+        if( cap < mStarts.length ) {
+            mStarts = Arrays.copyOf( mStarts, cap );
+            mStops  = Arrays.copyOf( mStops, cap );
+        }
+    }
+
+
+    @Override
+    public TimeBlock[] toArray() {
+        TimeBlock[] ret = new TimeBlock[mSize];
+        for( int i = 0; i < mSize; i++ ) {
+            ret[i] = new TimeBlock( mStarts[i], mStops[i] );
+        }
+        return ret;
+    }
+
+
+    @Override
+    @SuppressWarnings( "unchecked" )
+    public <T> T[] toArray( T[] a ) {
+        Class<?> c = a.getClass().getComponentType();
+        if( !c.isAssignableFrom( TimeBlock.class ) ) {
+            throw new ArrayStoreException();
+        }
+
+        if( a.length < mSize ) {
+            a = (T[])Array.newInstance( a.getClass().getComponentType(), mSize );
+        } else if( a.length > mSize ) {
+            a[mSize] = null;
+        }
+
+        for( int i = 0; i < mSize; i++ ) {
+            a[i] = (T)new TimeBlock( mStarts[i], mStops[i] );
+        }
+
+        return a;
+    }
+
+
+
+    /*************************************************************
+     * Array operations
+     *************************************************************/
+
+    /**
+     * Replaces blocks [lo, hi) with {@code count} unassigned slots, shifting the
+     * tail of the arrays and growing them as needed.
+     */
+    private void replace( int lo, int hi, int count ) {
+        int newSize = mSize - ( hi - lo ) + count;
+        if( newSize > mStarts.length ) {
+            int cap = Math.max( newSize, mStarts.length + ( mStarts.length >> 1 ) + 1 );
+            mStarts = Arrays.copyOf( mStarts, cap );
+            mStops  = Arrays.copyOf( mStops, cap );
+        }
+
+        if( hi - lo != count ) {
+            System.arraycopy( mStarts, hi, mStarts, lo + count, mSize - hi );
+            System.arraycopy( mStops, hi, mStops, lo + count, mSize - hi );
+        }
+
+        mSize = newSize;
+        mModCount++;
+    }
+
+    /**
+     * @return lowest index with stop > t, or mSize if none.
+     */
+    private int firstStopAfter( long t ) {
+        int lo = 0;
+        int hi = mSize;
+        while( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if( mStops[mid] > t ) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return lowest index with stop >= t, or mSize if none.
+     */
+    private int firstStopAtOrAfter( long t ) {
+        int lo = 0;
+        int hi = mSize;
+        while( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if( mStops[mid] >= t ) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return lowest index with start > t, or mSize if none.
+     */
+    private int firstStartAfter( long t ) {
+        int lo = 0;
+        int hi = mSize;
+        while( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if( mStarts[mid] > t ) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return lowest index with start >= t, or mSize if none.
+     */
+    private int firstStartAtOrAfter( long t ) {
+        int lo = 0;
+        int hi = mSize;
+        while( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if( mStarts[mid] >= t ) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+
+
+    /*********************************
+     * View classes
+     *********************************/
+
+    private class TimeIterator implements Iterator<TimeBlock> {
+
+        private int mIterMod = mModCount;
+        private int mPrev    = -1;
+        private int mNext    = 0;
+
+        @Override
+        public boolean hasNext() {
+            return mNext < mSize;
+        }
+
+        @Override
+        public TimeBlock next() {
+            if( mNext >= mSize ) {
+                throw new NoSuchElementException();
+            }
+
+            if( mModCount != mIterMod ) {
+                throw new ConcurrentModificationException();
+            }
+
+            mPrev = mNext++;
+            return new TimeBlock( mStarts[mPrev], mStops[mPrev] );
+        }
+
+        @Override
+        public void remove() {
+            if( mPrev < 0 ) {
+                throw new IllegalStateException();
+            }
+
+            if( mModCount != mIterMod ) {
+                throw new ConcurrentModificationException();
+            }
+
+            replace( mPrev, mPrev + 1, 0 );
+            mNext = mPrev;
+            mPrev = -1;
+            mIterMod = mModCount;
+        }
+
+    }
+
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.util.*;
+
+
+/**
+ * Thread-safe TimeSet for read-mostly use. Contents are kept in an immutable
+ * PersistentTimeSet snapshot held in a volatile field. Readers use whichever snapshot
+ * is current and never block. Writers serialize on a lock, take an O(1) snapshot of
+ * the current version, apply their changes and publish the result.
+ * <p>
+ * Because each change copies only the O(log n) tree nodes it touches, single
+ * adds and removes are cheap enough for one-at-a-time ingest. Writers that need
+ * several changes to become visible together should collect them in a {@link Batch}
+ * and publish them with {@link #apply(Batch)}.
+ * <p>
+ * Iterators operate on the snapshot that was current when they were created,
+ * and never throw ConcurrentModificationException.
+ *
+ * @author Philip DeCamp
+ */
+public class ConcurrentTimeSet extends AbstractSet<TimeBlock> {
+
+    private final Object mWriteLock = new Object();
+    private volatile PersistentTimeSet mSnapshot = new PersistentTimeSet();
+
+
+    public ConcurrentTimeSet() {}
+
+
+    @Override
+    public boolean add( TimeBlock tb ) {
+        if( tb == null ) {
+            return false;
+        }
+        return add( tb.startMicros(), tb.stopMicros() );
+    }
+
+
+    public boolean add( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return false;
+        }
+
+        synchronized( mWriteLock ) {
+            if( mSnapshot.contains( startMicros, stopMicros ) ) {
+                return false;
+            }
+            PersistentTimeSet next = mSnapshot.snapshot();
+            next.add( startMicros, stopMicros );
+            mSnapshot = next;
+            return true;
+        }
+    }
+
+
+    @Override
+    public boolean remove( Object timeBlock ) {
+        if( !( timeBlock instanceof TimeBlock ) ) {
+            return false;
+        }
+        TimeBlock tb = (TimeBlock)timeBlock;
+        return remove( tb.startMicros(), tb.stopMicros() );
+    }
+
+
+    public boolean remove( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return false;
+        }
+
+        synchronized( mWriteLock ) {
+            PersistentTimeSet next = mSnapshot.snapshot();
+            if( !next.remove( startMicros, stopMicros ) ) {
+                return false;
+            }
+            mSnapshot = next;
+            return true;
+        }
+    }
+
+    /**
+     * Applies all operations in {@code batch}, in order, and publishes the result
+     * to readers at once. Readers will see either none or all of the changes.
+     *
+     * @return true iff any operation modified the set.
+     */
+    public boolean apply( Batch batch ) {
+        synchronized( mWriteLock ) {
+            PersistentTimeSet next = mSnapshot.snapshot();
+            boolean changed = false;
+            long[] ops = batch.mOps;
+
+            for( int i = 0; i < batch.mSize; i++ ) {
+                long start = ops[i * 2];
+                long stop  = ops[i * 2 + 1];
+                if( batch.mRemove.get( i ) ) {
+                    changed |= next.remove( start, stop );
+                } else {
+                    changed |= next.add( start, stop );
+                }
+            }
+
+            if( changed ) {
+                mSnapshot = next;
+            }
+            return changed;
+        }
+    }
+
+
+    @Override
+    public void clear() {
+        synchronized( mWriteLock ) {
+            mSnapshot = new PersistentTimeSet();
+        }
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return mSnapshot.isEmpty();
+    }
+
+
+    @Override
+    public int size() {
+        return mSnapshot.size();
+    }
+
+
+    @Override
+    public boolean contains( Object timeBlock ) {
+        return mSnapshot.contains( timeBlock );
+    }
+
+
+    public boolean contains( long timeMicro ) {
+        return mSnapshot.contains( timeMicro );
+    }
+
+
+    public boolean contains( long startMicros, long stopMicros ) {
+        return mSnapshot.contains( startMicros, stopMicros );
+    }
+
+    /**
+     * @return the contiguous TimeBlock in this set containing timeMicro, or null if none.
+     */
+    public TimeBlock blockContaining( long timeMicro ) {
+        return mSnapshot.blockContaining( timeMicro );
+    }
+
+    /**
+     * Returns the smallest TimeBlock that is a superset of this set.
+     *
+     * @return superset of set, or NULL if set is empty.
+     */
+    public TimeBlock range() {
+        return mSnapshot.range();
+    }
+
+    /**
+     * @return iterator over the current snapshot of this set. Calls to
+     *         {@code Iterator.remove()} remove the block from this set.
+     */
+    @Override
+    public Iterator<TimeBlock> iterator() {
+        final Iterator<TimeBlock> iter = mSnapshot.iterator();
+
+        return new Iterator<TimeBlock>() {
+            private TimeBlock mPrev = null;
+
+            @Override
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
+
+            @Override
+            public TimeBlock next() {
+                return mPrev = iter.next();
+            }
+
+            @Override
+            public void remove() {
+                if( mPrev == null ) {
+                    throw new IllegalStateException();
+                }
+                ConcurrentTimeSet.this.remove( mPrev.startMicros(), mPrev.stopMicros() );
+                mPrev = null;
+            }
+        };
+    }
+
+
+    public List<TimeBlock> intersect( TimeBlock range ) {
+        return mSnapshot.intersect( range );
+    }
+
+
+    public List<TimeBlock> intersect( long startMicros, long stopMicros ) {
+        return mSnapshot.intersect( startMicros, stopMicros );
+    }
+
+    /**
+     * @see TimeSet#intersect(long, long, RangeVisitor)
+     */
+    public boolean intersect( long startMicros, long stopMicros, RangeVisitor visitor ) {
+        return mSnapshot.intersect( startMicros, stopMicros, visitor );
+    }
+
+    /**
+     * @see TimeSet#intersect(long, long, long[], int)
+     */
+    public int intersect( long startMicros, long stopMicros, long[] out, int off ) {
+        return mSnapshot.intersect( startMicros, stopMicros, out, off );
+    }
+
+
+    public List<TimeBlock> subtractFrom( TimeBlock range ) {
+        return mSnapshot.subtractFrom( range );
+    }
+
+
+    public List<TimeBlock> subtractFrom( long startMicros, long stopMicros ) {
+        return mSnapshot.subtractFrom( startMicros, stopMicros );
+    }
+
+    /**
+     * @see TimeSet#subtractFrom(long, long, RangeVisitor)
+     */
+    public boolean subtractFrom( long startMicros, long stopMicros, RangeVisitor visitor ) {
+        return mSnapshot.subtractFrom( startMicros, stopMicros, visitor );
+    }
+
+    /**
+     * @see TimeSet#subtractFrom(long, long, long[], int)
+     */
+    public int subtractFrom( long startMicros, long stopMicros, long[] out, int off ) {
+        return mSnapshot.subtractFrom( startMicros, stopMicros, out, off );
+    }
+
+    /**
+     * Passes every block in the current snapshot, in order, to {@code visitor}.
+     *
+     * @return true if all blocks were visited, false if visitor stopped early.
+     */
+    public boolean visit( RangeVisitor visitor ) {
+        return mSnapshot.visit( visitor );
+    }
+
+    /**
+     * @return a copy of the current contents of this set.
+     */
+    public CompactTimeSet snapshot() {
+        PersistentTimeSet snap = mSnapshot;
+        final CompactTimeSet ret = new CompactTimeSet( Math.max( 1, snap.size() ) );
+        snap.visit( new RangeVisitor() {
+            @Override
+            public boolean visit( long startMicros, long stopMicros ) {
+                ret.add( startMicros, stopMicros );
+                return true;
+            }
+        } );
+        return ret;
+    }
+
+
+    @Override
+    public TimeBlock[] toArray() {
+        return mSnapshot.toArray();
+    }
+
+
+    @Override
+    public <T> T[] toArray( T[] a ) {
+        return mSnapshot.toArray( a );
+    }
+
+    /**
+     * @see TimeSet#toArray(long[], int)
+     */
+    public int toArray( long[] out, int off ) {
+        return mSnapshot.toArray( out, off );
+    }
+
+
+    /**
+     * Ordered list of add and remove operations to be published together
+     * by {@link ConcurrentTimeSet#apply(Batch)}. Not thread-safe.
+     */
+    public static final class Batch {
+
+        private long[] mOps    = new long[16];
+        private BitSet mRemove = new BitSet();
+        private int    mSize   = 0;
+
+
+        public Batch add( long startMicros, long stopMicros ) {
+            push( startMicros, stopMicros, false );
+            return this;
+        }
+
+
+        public Batch remove( long startMicros, long stopMicros ) {
+            push( startMicros, stopMicros, true );
+            return this;
+        }
+
+
+        public int size() {
+            return mSize;
+        }
+
+
+        public void clear() {
+            mSize = 0;
+            mRemove.clear();
+        }
+
+
+        private void push( long startMicros, long stopMicros, boolean remove ) {
+            if( mSize * 2 == mOps.length ) {
+                mOps = Arrays.copyOf( mOps, mOps.length * 2 );
+            }
+            mOps[mSize * 2]     = startMicros;
+            mOps[mSize * 2 + 1] = stopMicros;
+            mRemove.set( mSize, remove );
+            mSize++;
+        }
+
+    }
+
+}
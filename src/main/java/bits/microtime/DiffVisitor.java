@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+/**
+ * Receives the differences between two sets of time as primitive start/stop pairs.
+ * For {@code a.diff( b, visitor )}, added ranges are covered by {@code b} but not
+ * {@code a}, and removed ranges are covered by {@code a} but not {@code b}. Applying
+ * each change to {@code a} makes it equal to {@code b}.
+ *
+ * @author Philip DeCamp
+ */
+public interface DiffVisitor {
+
+    /**
+     * @return true to continue receiving ranges, false to stop the diff early.
+     */
+    boolean added( long startMicros, long stopMicros );
+
+    /**
+     * @return true to continue receiving ranges, false to stop the diff early.
+     */
+    boolean removed( long startMicros, long stopMicros );
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.util.*;
+
+
+/**
+ * TimeMap specialized for {@code long} values, which are stored unboxed.
+ *
+ * @author Philip DeCamp
+ * @see TimeMap
+ */
+public class LongTimeMap extends AbstractTimeMap {
+
+    private long[] mValues;
+
+
+    public LongTimeMap() {}
+
+    /**
+     * Assigns {@code value} to [startMicros, stopMicros), replacing any values there.
+     */
+    public void put( long startMicros, long stopMicros, long value ) {
+        if( stopMicros <= startMicros ) {
+            return;
+        }
+        int idx = cut( startMicros, stopMicros, true );
+        mValues[idx] = value;
+        coalesce( idx );
+    }
+
+    /**
+     * @return value assigned at {@code timeMicro}, or {@code defaultValue} if none.
+     */
+    public long get( long timeMicro, long defaultValue ) {
+        int idx = indexAt( timeMicro );
+        return idx < 0 ? defaultValue : mValues[idx];
+    }
+
+
+    public long valueAt( int index ) {
+        checkIndex( index );
+        return mValues[index];
+    }
+
+    /**
+     * Passes each entry that intersects [startMicros, stopMicros), clipped to that range,
+     * to {@code visitor} in order.
+     *
+     * @return true if all entries were visited, false if visitor stopped early.
+     */
+    public boolean visit( long startMicros, long stopMicros, Visitor visitor ) {
+        for( int i = firstIndexAfter( startMicros ); i < mSize && mStarts[i] < stopMicros; i++ ) {
+            long start = Math.max( startMicros, mStarts[i] );
+            long stop  = Math.min( stopMicros, mStops[i] );
+            if( !visitor.visit( start, stop, mValues[i] ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    @Override
+    void resizeValues( int capacity ) {
+        mValues = mValues == null ? new long[capacity] : Arrays.copyOf( mValues, capacity );
+    }
+
+    @Override
+    void copyValues( int src, int dst, int len ) {
+        System.arraycopy( mValues, src, mValues, dst, len );
+    }
+
+    @Override
+    void clearValues( int off ) {}
+
+    @Override
+    boolean valuesEqual( int a, int b ) {
+        return mValues[a] == mValues[b];
+    }
+
+
+    public interface Visitor {
+        /**
+         * @return true to continue visiting, false to stop.
+         */
+        boolean visit( long startMicros, long stopMicros, long value );
+    }
+
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+
+/**
+ * Read-only TimeSet view of a file written by {@link #write(TimeSet, File)}.
+ * The file is memory-mapped, and queries, including index lookups, are answered
+ * directly from the mapped buffers, so opening a file reads only the header.
+ * <p>
+ * File format, all values little-endian:
+ * <pre>
+ *   int    magic       "TSET"
+ *   int    version     1
+ *   long   blockCount  n
+ *   int    indexStride s, or 0 if there is no index
+ *   int    indexCount  ceil(n / s)
+ *   long   reserved
+ *   long[] blocks      n start/stop pairs, sorted and disjoint
+ *   long[] index       start time of every s-th block
+ * </pre>
+ * The sparse index is small enough to stay in cache, and narrows each search
+ * to a single run of {@code s} blocks, so lookups touch few pages of the mapping.
+ *
+ * @author Philip DeCamp
+ */
+public class MappedTimeSet extends AbstractSet<TimeBlock> {
+
+    public static final int DEFAULT_INDEX_STRIDE = 256;
+
+    private static final int MAGIC       = 0x54455354; // "TSET"
+    private static final int VERSION     = 1;
+    private static final int HEADER_SIZE = 32;
+
+    // Mappings are split into segments so that files over 2GB can be mapped.
+    // Segments are a multiple of 8 bytes, so no long value crosses a boundary.
+    private static final int  SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_MASK  = ( 1L << SEGMENT_SHIFT ) - 1;
+
+
+    /**
+     * Writes {@code set} to {@code file} with the default index stride.
+     */
+    public static void write( TimeSet set, File file ) throws IOException {
+        write( set, file, DEFAULT_INDEX_STRIDE );
+    }
+
+    /**
+     * Writes {@code set} to {@code file}.
+     *
+     * @param indexStride number of blocks per sparse index entry, or 0 to omit index.
+     */
+    public static void write( TimeSet set, File file, final int indexStride ) throws IOException {
+        if( indexStride < 0 ) {
+            throw new IllegalArgumentException( "indexStride < 0" );
+        }
+
+        final long count   = set.size();
+        final int indexLen = indexStride == 0 ? 0 : (int)( ( count + indexStride - 1 ) / indexStride );
+        final long[] index = new long[indexLen];
+
+        FileOutputStream out = new FileOutputStream( file );
+        try {
+            final FileChannel ch = out.getChannel();
+            final ByteBuffer buf = ByteBuffer.allocateDirect( 1 << 16 ).order( ByteOrder.LITTLE_ENDIAN );
+
+            buf.putInt( MAGIC );
+            buf.putInt( VERSION );
+            buf.putLong( count );
+            buf.putInt( indexStride );
+            buf.putInt( indexLen );
+            buf.putLong( 0L );
+
+            final IOException[] err = { null };
+            set.visit( new RangeVisitor() {
+                long mPos = 0;
+
+                @Override
+                public boolean visit( long startMicros, long stopMicros ) {
+                    if( indexLen > 0 && mPos % indexStride == 0 ) {
+                        index[(int)( mPos / indexStride )] = startMicros;
+                    }
+                    mPos++;
+
+                    try {
+                        if( buf.remaining() < 16 ) {
+                            flush( ch, buf );
+                        }
+                    } catch( IOException e ) {
+                        err[0] = e;
+                        return false;
+                    }
+
+                    buf.putLong( startMicros );
+                    buf.putLong( stopMicros );
+                    return true;
+                }
+            } );
+
+            if( err[0] != null ) {
+                throw err[0];
+            }
+
+            for( long v : index ) {
+                if( buf.remaining() < 8 ) {
+                    flush( ch, buf );
+                }
+                buf.putLong( v );
+            }
+
+            flush( ch, buf );
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Opens a file written by {@link #write} as a read-only set.
+     */
+    public static MappedTimeSet open( File file ) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try {
+            FileChannel ch = raf.getChannel();
+            long len = ch.size();
+            if( len < HEADER_SIZE ) {
+                throw new IOException( "File too short for TimeSet header: " + file );
+            }
+
+            ByteBuffer head = ch.map( FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+            if( head.getInt( 0 ) != MAGIC ) {
+                throw new IOException( "Not a TimeSet file: " + file );
+            }
+            if( head.getInt( 4 ) != VERSION ) {
+                throw new IOException( "Unsupported TimeSet file version: " + head.getInt( 4 ) );
+            }
+
+            long count    = head.getLong( 8 );
+            int stride    = head.getInt( 16 );
+            int indexLen  = head.getInt( 20 );
+            long expected = HEADER_SIZE + count * 16L + indexLen * 8L;
+
+            if( count < 0 || stride < 0 || indexLen < 0 || len < expected ) {
+                throw new IOException( "Corrupt TimeSet file: " + file );
+            }
+            if( count > Integer.MAX_VALUE ) {
+                throw new IOException( "TimeSet file too large: " + count + " blocks" );
+            }
+            if( indexLen != ( stride == 0 ? 0 : ( count + stride - 1 ) / stride ) ) {
+                throw new IOException( "Corrupt TimeSet index: " + file );
+            }
+
+            ByteBuffer[] segs = new ByteBuffer[(int)( ( expected + SEGMENT_MASK ) >> SEGMENT_SHIFT )];
+            for( int i = 0; i < segs.length; i++ ) {
+                long pos = (long)i << SEGMENT_SHIFT;
+                long size = Math.min( SEGMENT_MASK + 1, expected - pos );
+                segs[i] = ch.map( FileChannel.MapMode.READ_ONLY, pos, size ).order( ByteOrder.LITTLE_ENDIAN );
+            }
+
+            return new MappedTimeSet( segs, (int)count, stride, indexLen );
+        } finally {
+            raf.close();
+        }
+    }
+
+
+    private final ByteBuffer[] mSegs;
+    private final int          mSize;
+    private final int          mStride;
+    private final int          mIndexLen;
+    private final long         mIndexPos;
+
+
+    private MappedTimeSet( ByteBuffer[] segs, int size, int stride, int indexLen ) {
+        mSegs     = segs;
+        mSize     = size;
+        mStride   = stride;
+        mIndexLen = indexLen;
+        mIndexPos = HEADER_SIZE + size * 16L;
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+
+    @Override
+    public boolean contains( Object timeBlock ) {
+        if( !( timeBlock instanceof TimeBlock ) ) {
+            return false;
+        }
+
+        TimeBlock tb = (TimeBlock)timeBlock;
+        return contains( tb.startMicros(), tb.stopMicros() );
+    }
+
+
+    public boolean contains( long timeMicro ) {
+        int i = firstStopAfter( timeMicro );
+        return i < mSize && start( i ) <= timeMicro;
+    }
+
+    /**
+     * Same semantics as {@link TimeSet#contains(long, long)}. An empty or inverted range
+     * is contained only if some block starts before {@code stopMicros} and stops after
+     * {@code startMicros}.
+     */
+    public boolean contains( long startMicros, long stopMicros ) {
+        int i = firstStopAfter( startMicros );
+        if( stopMicros <= startMicros ) {
+            return i < mSize && start( i ) < stopMicros;
+        }
+        return i < mSize && start( i ) <= startMicros && stop( i ) >= stopMicros;
+    }
+
+    /**
+     * @return the contiguous TimeBlock in this set containing timeMicro, or null if none.
+     */
+    public TimeBlock blockContaining( long timeMicro ) {
+        int i = firstStopAfter( timeMicro );
+        if( i < mSize && start( i ) <= timeMicro ) {
+            return new TimeBlock( start( i ), stop( i ) );
+        }
+        return null;
+    }
+
+    /**
+     * Returns the smallest TimeBlock that is a superset of this set.
+     *
+     * @return superset of set, or NULL if set is empty.
+     */
+    public TimeBlock range() {
+        if( mSize == 0 ) {
+            return null;
+        }
+        return new TimeBlock( start( 0 ), stop( mSize - 1 ) );
+    }
+
+
+    @Override
+    public Iterator<TimeBlock> iterator() {
+        return new Iterator<TimeBlock>() {
+            private int mNext = 0;
+
+            @Override
+            public boolean hasNext() {
+                return mNext < mSize;
+            }
+
+            @Override
+            public TimeBlock next() {
+                if( mNext >= mSize ) {
+                    throw new NoSuchElementException();
+                }
+                TimeBlock ret = new TimeBlock( start( mNext ), stop( mNext ) );
+                mNext++;
+                return ret;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+
+    public List<TimeBlock> intersect( TimeBlock range ) {
+        return intersect( range.startMicros(), range.stopMicros() );
+    }
+
+
+    public List<TimeBlock> intersect( long startMicros, long stopMicros ) {
+        List<TimeBlock> ret = new ArrayList<TimeBlock>();
+        for( int i = firstStopAfter( startMicros ); i < mSize; i++ ) {
+            long start = start( i );
+            if( start >= stopMicros ) {
+                break;
+            }
+            ret.add( new TimeBlock( Math.max( start, startMicros ), Math.min( stop( i ), stopMicros ) ) );
+        }
+        return ret;
+    }
+
+    /**
+     * @see TimeSet#intersect(long, long, RangeVisitor)
+     */
+    public boolean intersect( long startMicros, long stopMicros, RangeVisitor visitor ) {
+        if( stopMicros <= startMicros ) {
+            return true;
+        }
+        for( int i = firstStopAfter( startMicros ); i < mSize; i++ ) {
+            long start = start( i );
+            if( start >= stopMicros ) {
+                break;
+            }
+            if( !visitor.visit( Math.max( start, startMicros ), Math.min( stop( i ), stopMicros ) ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    public List<TimeBlock> subtractFrom( TimeBlock range ) {
+        return subtractFrom( range.startMicros(), range.stopMicros() );
+    }
+
+
+    public List<TimeBlock> subtractFrom( long startMicros, long stopMicros ) {
+        final List<TimeBlock> ret = new ArrayList<TimeBlock>();
+        subtractFrom( startMicros, stopMicros, new RangeVisitor() {
+            @Override
+            public boolean visit( long start, long stop ) {
+                ret.add( new TimeBlock( start, stop ) );
+                return true;
+            }
+        } );
+        return ret;
+    }
+
+    /**
+     * @see TimeSet#subtractFrom(long, long, RangeVisitor)
+     */
+    public boolean subtractFrom( long startMicros, long stopMicros, RangeVisitor visitor ) {
+        long lastStop = startMicros;
+
+        for( int i = firstStopAfter( startMicros ); i < mSize; i++ ) {
+            long start = start( i );
+            if( start >= stopMicros ) {
+                break;
+            }
+            if( start > lastStop && !visitor.visit( lastStop, start ) ) {
+                return false;
+            }
+            lastStop = stop( i );
+        }
+
+        return lastStop >= stopMicros || visitor.visit( lastStop, stopMicros );
+    }
+
+    /**
+     * Passes every block in this set, in order, to {@code visitor}.
+     *
+     * @return true if all blocks were visited, false if visitor stopped early.
+     */
+    public boolean visit( RangeVisitor visitor ) {
+        for( int i = 0; i < mSize; i++ ) {
+            if( !visitor.visit( start( i ), stop( i ) ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a modifiable, in-memory copy of this set.
+     */
+    public TimeSet toTimeSet() {
+        long[] starts = new long[mSize];
+        long[] stops  = new long[mSize];
+        for( int i = 0; i < mSize; i++ ) {
+            starts[i] = start( i );
+            stops[i]  = stop( i );
+        }
+        return TimeSet.fromArrays( starts, stops );
+    }
+
+
+
+    /**
+     * @return lowest block index with stop > t, or mSize if none.
+     */
+    private int firstStopAfter( long t ) {
+        int lo = 0;
+        int hi = mSize;
+
+        if( mIndexLen > 0 ) {
+            // Find last indexed run starting at or before t. No earlier block can stop after t.
+            int a = 0;
+            int b = mIndexLen;
+            while( a < b ) {
+                int mid = ( a + b ) >>> 1;
+                if( getLong( mSegs, mIndexPos + mid * 8L ) > t ) {
+                    b = mid;
+                } else {
+                    a = mid + 1;
+                }
+            }
+
+            if( a > 0 ) {
+                lo = ( a - 1 ) * mStride;
+            }
+            hi = (int)Math.min( mSize, (long)a * mStride );
+        }
+
+        while( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if( stop( mid ) > t ) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+
+        return lo;
+    }
+
+
+    private long start( int i ) {
+        return getLong( mSegs, HEADER_SIZE + i * 16L );
+    }
+
+
+    private long stop( int i ) {
+        return getLong( mSegs, HEADER_SIZE + i * 16L + 8L );
+    }
+
+
+    private static long getLong( ByteBuffer[] segs, long pos ) {
+        return segs[(int)( pos >>> SEGMENT_SHIFT )].getLong( (int)( pos & SEGMENT_MASK ) );
+    }
+
+
+    private static void flush( FileChannel ch, ByteBuffer buf ) throws IOException {
+        buf.flip();
+        while( buf.hasRemaining() ) {
+            ch.write( buf );
+        }
+        buf.clear();
+    }
+
+}
@@ -0,0 +1,871 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.util.*;
+
+
+/**
+ * TimeSet backed by a persistent red-black tree. Nodes are never modified after
+ * creation; each mutation copies only the O(log n) nodes on the paths it changes
+ * and shares the rest of the tree with previous versions.
+ * <p>
+ * As a result, {@link #snapshot()} is O(1), and a snapshot is unaffected by later
+ * changes to the set it was taken from (or vice versa). Iterators traverse the
+ * version of the tree that existed when they were created, and never throw
+ * ConcurrentModificationException. Instances are not thread-safe, but snapshots
+ * may be handed to other threads once taken.
+ * <p>
+ * Insertion follows Okasaki, deletion follows Kahrs, "Red-black trees with types" (2001).
+ *
+ * @author Philip DeCamp
+ */
+public class PersistentTimeSet extends AbstractSet<TimeBlock> {
+
+    private Node mRoot = null;
+    private int  mSize = 0;
+
+
+    public PersistentTimeSet() {}
+
+
+    private PersistentTimeSet( Node root, int size ) {
+        mRoot = root;
+        mSize = size;
+    }
+
+    /**
+     * Creates a PersistentTimeSet containing the same blocks as {@code set}. O(n).
+     */
+    public static PersistentTimeSet copyOf( TimeSet set ) {
+        int n = set.size();
+        if( n == 0 ) {
+            return new PersistentTimeSet();
+        }
+        long[] pairs = new long[n * 2];
+        set.toArray( pairs, 0 );
+        return new PersistentTimeSet( buildTree( pairs, 0, n - 1, 0, redLevel( n ) ), n );
+    }
+
+    /**
+     * @return an independent copy of this set that shares structure with it. O(1).
+     */
+    public PersistentTimeSet snapshot() {
+        return new PersistentTimeSet( mRoot, mSize );
+    }
+
+
+    @Override
+    public boolean add( TimeBlock tb ) {
+        if( tb == null ) {
+            return false;
+        }
+        return add( tb.startMicros(), tb.stopMicros() );
+    }
+
+
+    public boolean add( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return false;
+        }
+
+        Node root = mRoot;
+        int size  = mSize;
+
+        // Remove every block that overlaps or touches the new one, expanding bounds as we go.
+        Node node = firstStopAtOrAfter( root, startMicros );
+        if( node != null && node.mStart <= startMicros && node.mStop >= stopMicros ) {
+            // Do nothing if TimeBlock is completely contained in set.
+            return false;
+        }
+
+        while( node != null && node.mStart <= stopMicros ) {
+            startMicros = Math.min( startMicros, node.mStart );
+            stopMicros  = Math.max( stopMicros, node.mStop );
+            root = delete( root, node.mStart );
+            size--;
+            node = firstStopAtOrAfter( root, startMicros );
+        }
+
+        mRoot = insert( root, startMicros, stopMicros );
+        mSize = size + 1;
+        return true;
+    }
+
+
+    @Override
+    public boolean remove( Object timeBlock ) {
+        if( !( timeBlock instanceof TimeBlock ) ) {
+            return false;
+        }
+        TimeBlock tb = (TimeBlock)timeBlock;
+        return remove( tb.startMicros(), tb.stopMicros() );
+    }
+
+
+    public boolean remove( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return false;
+        }
+
+        Node root = mRoot;
+        int size  = mSize;
+        Node node = firstStopAfter( root, startMicros );
+
+        if( node == null || node.mStart >= stopMicros ) {
+            return false;
+        }
+
+        while( node != null && node.mStart < stopMicros ) {
+            root = delete( root, node.mStart );
+            size--;
+
+            // Re-insert portions of the block that lie outside the removed range.
+            if( node.mStart < startMicros ) {
+                root = insert( root, node.mStart, startMicros );
+                size++;
+            }
+
+            if( stopMicros < node.mStop ) {
+                root = insert( root, stopMicros, node.mStop );
+                size++;
+                break;
+            }
+
+            node = firstStopAfter( root, startMicros );
+        }
+
+        mRoot = root;
+        mSize = size;
+        return true;
+    }
+
+
+    @Override
+    public void clear() {
+        mRoot = null;
+        mSize = 0;
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return mRoot == null;
+    }
+
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+
+    @Override
+    public boolean contains( Object timeBlock ) {
+        if( !( timeBlock instanceof TimeBlock ) ) {
+            return false;
+        }
+
+        TimeBlock tb = (TimeBlock)timeBlock;
+        return contains( tb.startMicros(), tb.stopMicros() );
+    }
+
+
+    public boolean contains( long timeMicro ) {
+        return blockNode( mRoot, timeMicro ) != null;
+    }
+
+    /**
+     * Same semantics as {@link TimeSet#contains(long, long)}. An empty or inverted range
+     * is contained only if some block starts before {@code stopMicros} and stops after
+     * {@code startMicros}.
+     */
+    public boolean contains( long startMicros, long stopMicros ) {
+        Node node = firstStopAfter( mRoot, startMicros );
+        if( stopMicros <= startMicros ) {
+            return node != null && node.mStart < stopMicros;
+        }
+        return node != null && node.mStart <= startMicros && node.mStop >= stopMicros;
+    }
+
+    /**
+     * @return the contiguous TimeBlock in this set containing timeMicro, or null if none.
+     */
+    public TimeBlock blockContaining( long timeMicro ) {
+        Node node = blockNode( mRoot, timeMicro );
+        return node == null ? null : new TimeBlock( node.mStart, node.mStop );
+    }
+
+    /**
+     * Returns the smallest TimeBlock that is a superset of this set.
+     *
+     * @return superset of set, or NULL if set is empty.
+     */
+    public TimeBlock range() {
+        Node first = mRoot;
+        Node last  = mRoot;
+        if( first == null ) {
+            return null;
+        }
+        while( first.mLeft != null ) {
+            first = first.mLeft;
+        }
+        while( last.mRight != null ) {
+            last = last.mRight;
+        }
+        return new TimeBlock( first.mStart, last.mStop );
+    }
+
+
+    @Override
+    public Iterator<TimeBlock> iterator() {
+        return new TimeIterator();
+    }
+
+
+    public List<TimeBlock> intersect( TimeBlock range ) {
+        return intersect( range.startMicros(), range.stopMicros() );
+    }
+
+
+    public List<TimeBlock> intersect( long startMicros, long stopMicros ) {
+        final List<TimeBlock> ret = new ArrayList<TimeBlock>();
+        intersect( startMicros, stopMicros, new RangeVisitor() {
+            @Override
+            public boolean visit( long start, long stop ) {
+                ret.add( new TimeBlock( start, stop ) );
+                return true;
+            }
+        } );
+        return ret;
+    }
+
+    /**
+     * @see TimeSet#intersect(long, long, RangeVisitor)
+     */
+    public boolean intersect( long startMicros, long stopMicros, RangeVisitor visitor ) {
+        if( stopMicros <= startMicros ) {
+            return true;
+        }
+        return visitRange( mRoot, startMicros, stopMicros, visitor );
+    }
+
+    /**
+     * @see TimeSet#intersect(long, long, long[], int)
+     */
+    public int intersect( long startMicros, long stopMicros, long[] out, int off ) {
+        PairWriter w = new PairWriter( out, off );
+        intersect( startMicros, stopMicros, w );
+        return w.mCount;
+    }
+
+
+    public List<TimeBlock> subtractFrom( TimeBlock range ) {
+        return subtractFrom( range.startMicros(), range.stopMicros() );
+    }
+
+
+    public List<TimeBlock> subtractFrom( long startMicros, long stopMicros ) {
+        final List<TimeBlock> ret = new ArrayList<TimeBlock>();
+        subtractFrom( startMicros, stopMicros, new RangeVisitor() {
+            @Override
+            public boolean visit( long start, long stop ) {
+                ret.add( new TimeBlock( start, stop ) );
+                return true;
+            }
+        } );
+        return ret;
+    }
+
+    /**
+     * @see TimeSet#subtractFrom(long, long, RangeVisitor)
+     */
+    public boolean subtractFrom( long startMicros, long stopMicros, RangeVisitor visitor ) {
+        long lastStop = startMicros;
+        Node node = firstStopAfter( mRoot, startMicros );
+
+        while( node != null && node.mStart < stopMicros ) {
+            if( node.mStart > lastStop && !visitor.visit( lastStop, node.mStart ) ) {
+                return false;
+            }
+            lastStop = node.mStop;
+            node = firstStopAfter( mRoot, lastStop );
+        }
+
+        return lastStop >= stopMicros || visitor.visit( lastStop, stopMicros );
+    }
+
+    /**
+     * @see TimeSet#subtractFrom(long, long, long[], int)
+     */
+    public int subtractFrom( long startMicros, long stopMicros, long[] out, int off ) {
+        PairWriter w = new PairWriter( out, off );
+        subtractFrom( startMicros, stopMicros, w );
+        return w.mCount;
+    }
+
+    /**
+     * Passes every block in this set, in order, to {@code visitor}.
+     *
+     * @return true if all blocks were visited, false if visitor stopped early.
+     */
+    public boolean visit( RangeVisitor visitor ) {
+        return visitRange( mRoot, Long.MIN_VALUE, Long.MAX_VALUE, visitor );
+    }
+
+    /**
+     * Computes the changes that would turn this set into {@code other}. Ranges covered
+     * by {@code other} but not this set are passed to {@link DiffVisitor#added}, and ranges
+     * covered by this set but not {@code other} are passed to {@link DiffVisitor#removed}.
+     * Ranges are maximal and arrive in time order.
+     * <p>
+     * Subtrees shared by both sets are skipped without being visited. Diffing a set
+     * against an earlier snapshot of itself therefore costs roughly O(k log n) for k
+     * changed blocks, rather than O(n).
+     *
+     * @return true if all ranges were visited, false if visitor stopped early.
+     */
+    public boolean diff( PersistentTimeSet other, DiffVisitor visitor ) {
+        DiffCursor a = new DiffCursor( mRoot );
+        DiffCursor b = new DiffCursor( other.mRoot );
+        // Unvisited portions of current blocks. Empty when start == stop.
+        long aStart = 0;
+        long aStop  = 0;
+        long bStart = 0;
+        long bStop  = 0;
+
+        while( true ) {
+            if( aStart == aStop && bStart == bStop ) {
+                // Both cursors are between blocks. Skip any subtree that comes next in both.
+                DiffCursor.skipShared( a, b );
+            }
+
+            if( aStart == aStop ) {
+                Node n = a.next();
+                if( n != null ) {
+                    aStart = n.mStart;
+                    aStop  = n.mStop;
+                }
+            }
+            if( bStart == bStop ) {
+                Node n = b.next();
+                if( n != null ) {
+                    bStart = n.mStart;
+                    bStop  = n.mStop;
+                }
+            }
+
+            boolean hasA = aStart < aStop;
+            boolean hasB = bStart < bStop;
+
+            if( !hasA && !hasB ) {
+                return true;
+            }
+
+            if( !hasB || hasA && aStart < bStart ) {
+                long end = hasB ? Math.min( aStop, bStart ) : aStop;
+                if( !visitor.removed( aStart, end ) ) {
+                    return false;
+                }
+                aStart = end;
+            } else if( !hasA || bStart < aStart ) {
+                long end = hasA ? Math.min( bStop, aStart ) : bStop;
+                if( !visitor.added( bStart, end ) ) {
+                    return false;
+                }
+                bStart = end;
+            } else {
+                long end = Math.min( aStop, bStop );
+                aStart = end;
+                bStart = end;
+            }
+        }
+    }
+
+
+    @Override
+    public TimeBlock[] toArray() {
+        TimeBlock[] ret = new TimeBlock[mSize];
+        int i = 0;
+        for( TimeBlock tb : this ) {
+            ret[i++] = tb;
+        }
+        return ret;
+    }
+
+    /**
+     * @see TimeSet#toArray(long[], int)
+     */
+    public int toArray( long[] out, int off ) {
+        visit( new PairWriter( out, off ) );
+        return mSize;
+    }
+
+
+
+    /*************************************************************
+     * Queries
+     *************************************************************/
+
+    private static Node blockNode( Node node, long t ) {
+        while( node != null ) {
+            if( t < node.mStart ) {
+                node = node.mLeft;
+            } else if( t >= node.mStop ) {
+                node = node.mRight;
+            } else {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return first node with stop > t, or null if none.
+     */
+    private static Node firstStopAfter( Node node, long t ) {
+        Node ret = null;
+        while( node != null ) {
+            if( node.mStop > t ) {
+                ret  = node;
+                node = node.mLeft;
+            } else {
+                node = node.mRight;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return first node with stop >= t, or null if none.
+     */
+    private static Node firstStopAtOrAfter( Node node, long t ) {
+        Node ret = null;
+        while( node != null ) {
+            if( node.mStop >= t ) {
+                ret  = node;
+                node = node.mLeft;
+            } else {
+                node = node.mRight;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Visits, in order, the non-empty intersection of each block under {@code node}
+     * with [startMicros, stopMicros).
+     */
+    private static boolean visitRange( Node node, long startMicros, long stopMicros, RangeVisitor visitor ) {
+        while( node != null ) {
+            if( node.mStop <= startMicros ) {
+                node = node.mRight;
+            } else if( node.mStart >= stopMicros ) {
+                node = node.mLeft;
+            } else {
+                if( !visitRange( node.mLeft, startMicros, stopMicros, visitor ) ) {
+                    return false;
+                }
+                if( !visitor.visit( Math.max( node.mStart, startMicros ), Math.min( node.mStop, stopMicros ) ) ) {
+                    return false;
+                }
+                node = node.mRight;
+            }
+        }
+        return true;
+    }
+
+
+
+    /*************************************************************
+     * Persistent Red-Black Tree Operations
+     *
+     * None of these methods modify existing nodes. Each returns the root of a new
+     * tree that shares all unchanged subtrees with its input.
+     *************************************************************/
+
+    private static final boolean BLACK = false;
+    private static final boolean RED   = true;
+
+
+    private static Node insert( Node root, long start, long stop ) {
+        Node ret = ins( root, start, stop );
+        return ret.mColor == BLACK ? ret : ret.with( BLACK, ret.mLeft, ret.mRight );
+    }
+
+
+    private static Node ins( Node node, long start, long stop ) {
+        if( node == null ) {
+            return new Node( RED, null, start, stop, null );
+        }
+
+        if( start < node.mStart ) {
+            Node left = ins( node.mLeft, start, stop );
+            return node.mColor == BLACK ? balance( left, node, node.mRight ) : node.with( RED, left, node.mRight );
+        } else {
+            Node right = ins( node.mRight, start, stop );
+            return node.mColor == BLACK ? balance( node.mLeft, node, right ) : node.with( RED, node.mLeft, right );
+        }
+    }
+
+    /**
+     * Removes the block starting at {@code start}, which must exist in tree.
+     */
+    private static Node delete( Node root, long start ) {
+        Node ret = del( root, start );
+        return ret == null || ret.mColor == BLACK ? ret : ret.with( BLACK, ret.mLeft, ret.mRight );
+    }
+
+
+    private static Node del( Node node, long start ) {
+        if( node == null ) {
+            return null;
+        }
+
+        if( start < node.mStart ) {
+            Node left = del( node.mLeft, start );
+            return isBlack( node.mLeft ) ? balanceLeft( left, node, node.mRight ) : node.with( RED, left, node.mRight );
+        } else if( start > node.mStart ) {
+            Node right = del( node.mRight, start );
+            return isBlack( node.mRight ) ? balanceRight( node.mLeft, node, right ) : node.with( RED, node.mLeft, right );
+        } else {
+            return append( node.mLeft, node.mRight );
+        }
+    }
+
+    /**
+     * Creates black node with key {@code key}, fixing any red-red violation
+     * in its immediate children.
+     */
+    private static Node balance( Node a, Node key, Node b ) {
+        if( isRed( a ) && isRed( b ) ) {
+            return key.with( RED, a.with( BLACK, a.mLeft, a.mRight ), b.with( BLACK, b.mLeft, b.mRight ) );
+        }
+
+        if( isRed( a ) ) {
+            if( isRed( a.mLeft ) ) {
+                Node c = a.mLeft;
+                return a.with( RED, c.with( BLACK, c.mLeft, c.mRight ), key.with( BLACK, a.mRight, b ) );
+            }
+            if( isRed( a.mRight ) ) {
+                Node c = a.mRight;
+                return c.with( RED, a.with( BLACK, a.mLeft, c.mLeft ), key.with( BLACK, c.mRight, b ) );
+            }
+        }
+
+        if( isRed( b ) ) {
+            if( isRed( b.mRight ) ) {
+                Node c = b.mRight;
+                return b.with( RED, key.with( BLACK, a, b.mLeft ), c.with( BLACK, c.mLeft, c.mRight ) );
+            }
+            if( isRed( b.mLeft ) ) {
+                Node c = b.mLeft;
+                return c.with( RED, key.with( BLACK, a, c.mLeft ), b.with( BLACK, c.mRight, b.mRight ) );
+            }
+        }
+
+        return key.with( BLACK, a, b );
+    }
+
+    /**
+     * Rebalances after left subtree lost one black level.
+     */
+    private static Node balanceLeft( Node left, Node key, Node right ) {
+        if( isRed( left ) ) {
+            return key.with( RED, left.with( BLACK, left.mLeft, left.mRight ), right );
+        }
+        if( isBlack( right ) ) {
+            return balance( left, key, right.with( RED, right.mLeft, right.mRight ) );
+        }
+
+        // right is RED with a BLACK left child.
+        Node c = right.mLeft;
+        return c.with( RED,
+                       key.with( BLACK, left, c.mLeft ),
+                       balance( c.mRight, right, redden( right.mRight ) ) );
+    }
+
+    /**
+     * Rebalances after right subtree lost one black level.
+     */
+    private static Node balanceRight( Node left, Node key, Node right ) {
+        if( isRed( right ) ) {
+            return key.with( RED, left, right.with( BLACK, right.mLeft, right.mRight ) );
+        }
+        if( isBlack( left ) ) {
+            return balance( left.with( RED, left.mLeft, left.mRight ), key, right );
+        }
+
+        // left is RED with a BLACK right child.
+        Node c = left.mRight;
+        return c.with( RED,
+                       balance( redden( left.mLeft ), left, c.mLeft ),
+                       key.with( BLACK, c.mRight, right ) );
+    }
+
+    /**
+     * Joins two subtrees of equal black height, where all of {@code a} precedes {@code b}.
+     */
+    private static Node append( Node a, Node b ) {
+        if( a == null ) {
+            return b;
+        }
+        if( b == null ) {
+            return a;
+        }
+
+        if( a.mColor == RED && b.mColor == RED ) {
+            Node mid = append( a.mRight, b.mLeft );
+            if( isRed( mid ) ) {
+                return mid.with( RED, a.with( RED, a.mLeft, mid.mLeft ), b.with( RED, mid.mRight, b.mRight ) );
+            }
+            return a.with( RED, a.mLeft, b.with( RED, mid, b.mRight ) );
+        }
+
+        if( a.mColor == BLACK && b.mColor == BLACK ) {
+            Node mid = append( a.mRight, b.mLeft );
+            if( isRed( mid ) ) {
+                return mid.with( RED, a.with( BLACK, a.mLeft, mid.mLeft ), b.with( BLACK, mid.mRight, b.mRight ) );
+            }
+            return balanceLeft( a.mLeft, a, b.with( BLACK, mid, b.mRight ) );
+        }
+
+        if( b.mColor == RED ) {
+            return b.with( RED, append( a, b.mLeft ), b.mRight );
+        }
+
+        return a.with( RED, a.mLeft, append( a.mRight, b ) );
+    }
+
+
+    private static Node redden( Node node ) {
+        if( !isBlack( node ) ) {
+            throw new IllegalStateException( "Invariant violation" );
+        }
+        return node.with( RED, node.mLeft, node.mRight );
+    }
+
+
+    private static boolean isRed( Node node ) {
+        return node != null && node.mColor == RED;
+    }
+
+
+    private static boolean isBlack( Node node ) {
+        return node != null && node.mColor == BLACK;
+    }
+
+
+    private static Node buildTree( long[] pairs, int lo, int hi, int level, int redLevel ) {
+        int mid = ( lo + hi ) >>> 1;
+        Node left  = lo < mid ? buildTree( pairs, lo, mid - 1, level + 1, redLevel ) : null;
+        Node right = mid < hi ? buildTree( pairs, mid + 1, hi, level + 1, redLevel ) : null;
+        return new Node( level == redLevel ? RED : BLACK, left, pairs[mid * 2], pairs[mid * 2 + 1], right );
+    }
+
+
+    private static int redLevel( int count ) {
+        int level = 0;
+        for( int m = count - 1; m >= 0; m = m / 2 - 1 ) {
+            level++;
+        }
+        return level;
+    }
+
+
+
+    private static final class Node {
+        final boolean mColor;
+        final Node    mLeft;
+        final long    mStart;
+        final long    mStop;
+        final Node    mRight;
+
+        // Extent of subtree.
+        final long    mMinStart;
+        final long    mMaxStop;
+
+        Node( boolean color, Node left, long start, long stop, Node right ) {
+            mColor    = color;
+            mLeft     = left;
+            mStart    = start;
+            mStop     = stop;
+            mRight    = right;
+            mMinStart = left == null ? start : left.mMinStart;
+            mMaxStop  = right == null ? stop : right.mMaxStop;
+        }
+
+        /**
+         * @return node with same block as this one, but with given color and children.
+         */
+        Node with( boolean color, Node left, Node right ) {
+            if( color == mColor && left == mLeft && right == mRight ) {
+                return this;
+            }
+            return new Node( color, left, mStart, mStop, right );
+        }
+    }
+
+
+
+    /**
+     * Writes ranges into an array as start/stop pairs, as many as fit, and counts all of them.
+     */
+    private static final class PairWriter implements RangeVisitor {
+        final long[] mOut;
+        final int    mCap;
+        int mOff;
+        int mCount = 0;
+
+        PairWriter( long[] out, int off ) {
+            mOut = out;
+            mOff = off;
+            mCap = ( out.length - off ) / 2;
+        }
+
+        @Override
+        public boolean visit( long startMicros, long stopMicros ) {
+            if( mCount++ < mCap ) {
+                mOut[mOff++] = startMicros;
+                mOut[mOff++] = stopMicros;
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * In-order traversal that can skip whole subtrees. The stack holds pending work in
+     * order: either a whole subtree, or a single node whose left subtree is done.
+     */
+    private static final class DiffCursor {
+
+        private Node[]    mNodes = new Node[16];
+        private boolean[] mWhole = new boolean[16];
+        private int       mSize  = 0;
+
+        DiffCursor( Node root ) {
+            if( root != null ) {
+                push( root, true );
+            }
+        }
+
+        /**
+         * @return next block in order, or null if done.
+         */
+        Node next() {
+            while( mSize > 0 ) {
+                Node node = mNodes[--mSize];
+                if( !mWhole[mSize] ) {
+                    return node;
+                }
+                expand( node );
+            }
+            return null;
+        }
+
+        /**
+         * Pops subtrees that are next in both cursors. A subtree shared by both trees
+         * is reached by expanding whichever pending subtree is larger until both match.
+         */
+        static void skipShared( DiffCursor a, DiffCursor b ) {
+            while( a.mSize > 0 && b.mSize > 0 && a.mWhole[a.mSize - 1] && b.mWhole[b.mSize - 1] ) {
+                Node x = a.mNodes[a.mSize - 1];
+                Node y = b.mNodes[b.mSize - 1];
+                if( x == y ) {
+                    a.mSize--;
+                    b.mSize--;
+                    continue;
+                }
+                // A shared subtree must start with the next block of both cursors.
+                if( x.mMinStart != y.mMinStart ) {
+                    return;
+                }
+                boolean expandA = x.mMaxStop >= y.mMaxStop;
+                boolean expandB = y.mMaxStop >= x.mMaxStop;
+                if( expandA ) {
+                    a.expand( a.mNodes[--a.mSize] );
+                }
+                if( expandB ) {
+                    b.expand( b.mNodes[--b.mSize] );
+                }
+            }
+        }
+
+
+        private void expand( Node node ) {
+            if( node.mRight != null ) {
+                push( node.mRight, true );
+            }
+            push( node, false );
+            if( node.mLeft != null ) {
+                push( node.mLeft, true );
+            }
+        }
+
+
+        private void push( Node node, boolean whole ) {
+            if( mSize == mNodes.length ) {
+                mNodes = Arrays.copyOf( mNodes, mSize * 2 );
+                mWhole = Arrays.copyOf( mWhole, mSize * 2 );
+            }
+            mNodes[mSize] = node;
+            mWhole[mSize] = whole;
+            mSize++;
+        }
+    }
+
+
+
+    /*********************************
+     * View classes
+     *********************************/
+
+    private class TimeIterator implements Iterator<TimeBlock> {
+
+        private final ArrayDeque<Node> mStack = new ArrayDeque<Node>();
+        private Node mPrev = null;
+
+        TimeIterator() {
+            pushLeft( mRoot );
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !mStack.isEmpty();
+        }
+
+        @Override
+        public TimeBlock next() {
+            if( mStack.isEmpty() ) {
+                throw new NoSuchElementException();
+            }
+
+            Node node = mStack.pop();
+            pushLeft( node.mRight );
+            mPrev = node;
+            return new TimeBlock( node.mStart, node.mStop );
+        }
+
+        @Override
+        public void remove() {
+            if( mPrev == null ) {
+                throw new IllegalStateException();
+            }
+            PersistentTimeSet.this.remove( mPrev.mStart, mPrev.mStop );
+            mPrev = null;
+        }
+
+        private void pushLeft( Node node ) {
+            while( node != null ) {
+                mStack.push( node );
+                node = node.mLeft;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+/**
+ * Receives time ranges as primitive start/stop pairs, allowing range queries
+ * to deliver results without allocating TimeBlocks.
+ *
+ * @author Philip DeCamp
+ */
+public interface RangeVisitor {
+
+    /**
+     * @param startMicros start of range, inclusive
+     * @param stopMicros  stop of range, exclusive
+     * @return true to continue receiving ranges, false to stop the query early.
+     */
+    boolean visit( long startMicros, long stopMicros );
+
+}
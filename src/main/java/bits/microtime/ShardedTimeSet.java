@@ -0,0 +1,630 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+
+/**
+ * Thread-safe set of time partitioned into fixed-length epochs, such as days. Each
+ * epoch that holds coverage has its own shard with its own lock, so writers to
+ * different epochs proceed in parallel, and each shard's tree stays shallow no
+ * matter how many years the set spans.
+ * <p>
+ * Blocks that cross epoch boundaries are split between shards on write. Reads stitch
+ * the pieces back together, so results are the same as for a single TimeSet. Each
+ * shard is read under its lock, but reads spanning several shards are not atomic
+ * with respect to concurrent writes.
+ * <p>
+ * Shards that are no longer written to can be frozen with {@link #freezeBefore(long)},
+ * which converts them to CompactTimeSets. A frozen shard is converted back to a TimeSet
+ * if it is written to again.
+ * <p>
+ * Every epoch touched by an added range gets its own shard, so a single
+ * {@link #add(long, long)} may span at most {@link #MAX_EPOCHS_PER_ADD} epochs.
+ * Larger ranges must be added in pieces. Removals and queries have no such limit.
+ *
+ * @author Philip DeCamp
+ */
+public class ShardedTimeSet implements Iterable<TimeBlock> {
+
+    /**
+     * Maximum number of epochs a single call to {@link #add(long, long)} may span.
+     */
+    public static final long MAX_EPOCHS_PER_ADD = 1L << 16;
+
+    private final long mEpoch;
+    // Origin reduced to [0, mEpoch), so epoch arithmetic cannot overflow.
+    private final long mOrigin;
+    private final long mMinEpoch;
+    private final long mMaxEpoch;
+    private final ConcurrentSkipListMap<Long,Shard> mShards = new ConcurrentSkipListMap<Long,Shard>();
+
+
+    public ShardedTimeSet( long epochMicros ) {
+        this( epochMicros, 0L );
+    }
+
+
+    public ShardedTimeSet( long epochMicros, long originMicros ) {
+        if( epochMicros <= 0 ) {
+            throw new IllegalArgumentException( "epochMicros must be positive" );
+        }
+        mEpoch  = epochMicros;
+        long r  = originMicros % epochMicros;
+        mOrigin = r < 0 ? r + epochMicros : r;
+        mMinEpoch = epochOf( Long.MIN_VALUE );
+        mMaxEpoch = epochOf( Long.MAX_VALUE );
+    }
+
+
+    public long epochMicros() {
+        return mEpoch;
+    }
+
+
+    /**
+     * @throws IllegalArgumentException if range spans more than {@link #MAX_EPOCHS_PER_ADD} epochs.
+     */
+    public boolean add( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return false;
+        }
+
+        long epoch = epochOf( startMicros );
+        long span  = epochOf( stopMicros - 1 ) - epoch;
+        if( span < 0 || span >= MAX_EPOCHS_PER_ADD ) {
+            throw new IllegalArgumentException( "Range spans more than " + MAX_EPOCHS_PER_ADD + " epochs" );
+        }
+
+        boolean changed = false;
+
+        while( true ) {
+            long epochStart = epochStart( epoch );
+            long epochStop  = epochStop( epoch );
+            long a = Math.max( startMicros, epochStart );
+            long b = Math.min( stopMicros, epochStop );
+
+            while( true ) {
+                Shard shard = mShards.get( epoch );
+                if( shard == null ) {
+                    Shard s = new Shard();
+                    shard = mShards.putIfAbsent( epoch, s );
+                    if( shard == null ) {
+                        shard = s;
+                    }
+                }
+                synchronized( shard ) {
+                    if( !shard.mDead ) {
+                        changed |= shard.live().add( a, b );
+                        break;
+                    }
+                }
+            }
+
+            if( stopMicros <= epochStop ) {
+                return changed;
+            }
+            epoch++;
+        }
+    }
+
+
+    public boolean remove( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return false;
+        }
+
+        boolean changed = false;
+        Map<Long,Shard> range = mShards.subMap( epochOf( startMicros ), true, epochOf( stopMicros - 1 ), true );
+
+        for( Map.Entry<Long,Shard> e : range.entrySet() ) {
+            Shard shard = e.getValue();
+            synchronized( shard ) {
+                // Check before thawing a frozen shard.
+                if( shard.mDead || !shard.intersects( startMicros, stopMicros ) ) {
+                    continue;
+                }
+                TimeSet set = shard.live();
+                changed |= set.remove( startMicros, stopMicros );
+                if( set.isEmpty() ) {
+                    shard.mDead = true;
+                    mShards.remove( e.getKey(), shard );
+                }
+            }
+        }
+
+        return changed;
+    }
+
+
+    public void clear() {
+        for( Map.Entry<Long,Shard> e : mShards.entrySet() ) {
+            Shard shard = e.getValue();
+            synchronized( shard ) {
+                shard.mDead = true;
+                mShards.remove( e.getKey(), shard );
+            }
+        }
+    }
+
+
+    public boolean isEmpty() {
+        for( Shard shard : mShards.values() ) {
+            synchronized( shard ) {
+                if( !shard.mDead && !shard.isEmpty() ) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of epochs that currently hold coverage.
+     */
+    public int shardCount() {
+        return mShards.size();
+    }
+
+
+    public boolean contains( long timeMicro ) {
+        Shard shard = mShards.get( epochOf( timeMicro ) );
+        if( shard == null ) {
+            return false;
+        }
+        synchronized( shard ) {
+            return !shard.mDead && shard.contains( timeMicro );
+        }
+    }
+
+
+    public boolean contains( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return false;
+        }
+        final long[] first = { startMicros, startMicros };
+        intersect( startMicros, stopMicros, new RangeVisitor() {
+            @Override
+            public boolean visit( long start, long stop ) {
+                first[0] = start;
+                first[1] = stop;
+                return false;
+            }
+        } );
+        return first[0] == startMicros && first[1] == stopMicros;
+    }
+
+    /**
+     * @return total microseconds covered.
+     */
+    public long coveredMicros() {
+        long sum = 0;
+        for( Shard shard : mShards.values() ) {
+            synchronized( shard ) {
+                if( !shard.mDead ) {
+                    sum += shard.coveredMicros();
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the smallest TimeBlock that is a superset of this set.
+     *
+     * @return superset of set, or NULL if set is empty.
+     */
+    public TimeBlock range() {
+        TimeBlock first = null;
+        for( Shard shard : mShards.values() ) {
+            synchronized( shard ) {
+                if( !shard.mDead && !shard.isEmpty() ) {
+                    first = shard.range();
+                    break;
+                }
+            }
+        }
+        if( first == null ) {
+            return null;
+        }
+
+        for( Shard shard : mShards.descendingMap().values() ) {
+            synchronized( shard ) {
+                if( !shard.mDead && !shard.isEmpty() ) {
+                    return new TimeBlock( first.startMicros(), shard.range().stopMicros() );
+                }
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Passes every block, in order, to {@code visitor}.
+     *
+     * @return true if all blocks were visited, false if visitor stopped early.
+     */
+    public boolean visit( RangeVisitor visitor ) {
+        return intersect( Long.MIN_VALUE, Long.MAX_VALUE, visitor );
+    }
+
+
+    /**
+     * Returns an iterator over all blocks, in order, with pieces split between shards
+     * joined. The iterator is weakly consistent: each shard is read under its lock when
+     * the iterator reaches it, and changes to shards already read are not reflected.
+     * {@code remove()} removes the last returned block from this set.
+     */
+    @Override
+    public Iterator<TimeBlock> iterator() {
+        return new StitchedIterator();
+    }
+
+
+    public List<TimeBlock> intersect( long startMicros, long stopMicros ) {
+        ListVisitor list = new ListVisitor();
+        intersect( startMicros, stopMicros, list );
+        return list.mList;
+    }
+
+    /**
+     * Passes each block that intersects [startMicros, stopMicros), clipped to that range,
+     * to {@code visitor}. Pieces of blocks split between shards are joined before
+     * they are passed on. The visitor is not called while any shard is locked.
+     *
+     * @return true if all blocks were visited, false if visitor stopped early.
+     */
+    public boolean intersect( long startMicros, long stopMicros, RangeVisitor visitor ) {
+        if( stopMicros <= startMicros ) {
+            return true;
+        }
+
+        Stitcher out = new Stitcher( visitor );
+        Map<Long,Shard> range = mShards.subMap( epochOf( startMicros ), true, epochOf( stopMicros - 1 ), true );
+
+        for( Shard shard : range.values() ) {
+            out.mSize = 0;
+            synchronized( shard ) {
+                if( shard.mDead ) {
+                    continue;
+                }
+                shard.intersect( startMicros, stopMicros, out );
+            }
+            if( !out.flushShard() ) {
+                return false;
+            }
+        }
+
+        return out.finish();
+    }
+
+
+    public List<TimeBlock> subtractFrom( long startMicros, long stopMicros ) {
+        ListVisitor list = new ListVisitor();
+        subtractFrom( startMicros, stopMicros, list );
+        return list.mList;
+    }
+
+    /**
+     * Passes each uncovered range within [startMicros, stopMicros) to {@code visitor}.
+     *
+     * @return true if all ranges were visited, false if visitor stopped early.
+     */
+    public boolean subtractFrom( final long startMicros, long stopMicros, final RangeVisitor visitor ) {
+        if( stopMicros <= startMicros ) {
+            return true;
+        }
+
+        final long[] pos = { startMicros };
+        boolean done = intersect( startMicros, stopMicros, new RangeVisitor() {
+            @Override
+            public boolean visit( long start, long stop ) {
+                if( start > pos[0] && !visitor.visit( pos[0], start ) ) {
+                    return false;
+                }
+                pos[0] = stop;
+                return true;
+            }
+        } );
+
+        return done && ( pos[0] >= stopMicros || visitor.visit( pos[0], stopMicros ) );
+    }
+
+    /**
+     * @return new TimeSet holding the current contents of this set.
+     */
+    public TimeSet toTimeSet() {
+        final TimeSet ret = new TimeSet();
+        visit( new RangeVisitor() {
+            @Override
+            public boolean visit( long startMicros, long stopMicros ) {
+                ret.add( startMicros, stopMicros );
+                return true;
+            }
+        } );
+        return ret;
+    }
+
+    /**
+     * Converts every shard for an epoch that ends at or before {@code timeMicros}
+     * to compact, array-backed form.
+     *
+     * @return number of shards converted.
+     */
+    public int freezeBefore( long timeMicros ) {
+        int count = 0;
+        for( Map.Entry<Long,Shard> e : mShards.entrySet() ) {
+            if( epochStop( e.getKey() ) > timeMicros ) {
+                break;
+            }
+            Shard shard = e.getValue();
+            synchronized( shard ) {
+                if( !shard.mDead && shard.freeze() ) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+
+
+    private long epochOf( long t ) {
+        long q = t / mEpoch;
+        long r = t % mEpoch;
+        if( r < 0 ) {
+            q--;
+            r += mEpoch;
+        }
+        return r >= mOrigin ? q : q - 1;
+    }
+
+    /**
+     * @return start of epoch, clamped to Long.MIN_VALUE for the first epoch.
+     */
+    private long epochStart( long epoch ) {
+        if( epoch == mMinEpoch ) {
+            return Long.MIN_VALUE;
+        }
+        // Intermediate product may wrap, but the sum is in range for every other epoch.
+        return epoch * mEpoch + mOrigin;
+    }
+
+    /**
+     * @return stop of epoch, clamped to Long.MAX_VALUE for the last epoch.
+     */
+    private long epochStop( long epoch ) {
+        return epoch == mMaxEpoch ? Long.MAX_VALUE : epochStart( epoch + 1 );
+    }
+
+    /**
+     * Coverage for one epoch. All access must be synchronized on the shard.
+     */
+    private static final class Shard {
+
+        TimeSet        mLive   = new TimeSet();
+        CompactTimeSet mFrozen = null;
+        // Set once shard is removed from map. A writer that finds a dead
+        // shard must fetch or create a new one.
+        boolean        mDead   = false;
+
+
+        TimeSet live() {
+            if( mFrozen != null ) {
+                int n = mFrozen.size();
+                long[] pairs  = new long[n * 2];
+                long[] starts = new long[n];
+                long[] stops  = new long[n];
+                mFrozen.toArray( pairs, 0 );
+                for( int i = 0; i < n; i++ ) {
+                    starts[i] = pairs[i * 2];
+                    stops[i]  = pairs[i * 2 + 1];
+                }
+                mLive   = TimeSet.fromArrays( starts, stops );
+                mFrozen = null;
+            }
+            return mLive;
+        }
+
+
+        boolean freeze() {
+            if( mFrozen != null ) {
+                return false;
+            }
+            final CompactTimeSet frozen = new CompactTimeSet( mLive.size() );
+            mLive.visit( new RangeVisitor() {
+                @Override
+                public boolean visit( long startMicros, long stopMicros ) {
+                    frozen.add( startMicros, stopMicros );
+                    return true;
+                }
+            } );
+            frozen.trimToSize();
+            mFrozen = frozen;
+            mLive   = null;
+            return true;
+        }
+
+
+        boolean isEmpty() {
+            return mFrozen != null ? mFrozen.isEmpty() : mLive.isEmpty();
+        }
+
+
+        boolean intersects( long startMicros, long stopMicros ) {
+            if( mFrozen != null ) {
+                return !mFrozen.intersect( startMicros, stopMicros, STOP_VISITOR );
+            }
+            return !mLive.intersect( startMicros, stopMicros, STOP_VISITOR );
+        }
+
+
+        boolean contains( long t ) {
+            return mFrozen != null ? mFrozen.contains( t ) : mLive.contains( t );
+        }
+
+
+        TimeBlock range() {
+            return mFrozen != null ? mFrozen.range() : mLive.range();
+        }
+
+
+        long coveredMicros() {
+            if( mFrozen == null ) {
+                return mLive.coveredMicros();
+            }
+            final long[] sum = { 0 };
+            mFrozen.visit( new RangeVisitor() {
+                @Override
+                public boolean visit( long startMicros, long stopMicros ) {
+                    sum[0] += stopMicros - startMicros;
+                    return true;
+                }
+            } );
+            return sum[0];
+        }
+
+
+        void intersect( long startMicros, long stopMicros, RangeVisitor out ) {
+            if( mFrozen != null ) {
+                mFrozen.intersect( startMicros, stopMicros, out );
+            } else {
+                mLive.intersect( startMicros, stopMicros, out );
+            }
+        }
+    }
+
+    /**
+     * Buffers the pieces read from one shard while it is locked, then passes
+     * them on, joining pieces that abut across shard boundaries.
+     */
+    private static final class Stitcher implements RangeVisitor {
+
+        final RangeVisitor mOut;
+        long[]  mPairs   = new long[32];
+        int     mSize    = 0;
+        boolean mPending = false;
+        long    mStart;
+        long    mStop;
+
+        Stitcher( RangeVisitor out ) {
+            mOut = out;
+        }
+
+        @Override
+        public boolean visit( long startMicros, long stopMicros ) {
+            if( mSize * 2 == mPairs.length ) {
+                mPairs = Arrays.copyOf( mPairs, mPairs.length * 2 );
+            }
+            mPairs[mSize * 2]     = startMicros;
+            mPairs[mSize * 2 + 1] = stopMicros;
+            mSize++;
+            return true;
+        }
+
+
+        boolean flushShard() {
+            for( int i = 0; i < mSize; i++ ) {
+                long start = mPairs[i * 2];
+                long stop  = mPairs[i * 2 + 1];
+                if( mPending && start == mStop ) {
+                    mStop = stop;
+                    continue;
+                }
+                if( mPending && !mOut.visit( mStart, mStop ) ) {
+                    return false;
+                }
+                mPending = true;
+                mStart   = start;
+                mStop    = stop;
+            }
+            return true;
+        }
+
+
+        boolean finish() {
+            return !mPending || mOut.visit( mStart, mStop );
+        }
+    }
+
+
+    private final class StitchedIterator implements Iterator<TimeBlock> {
+
+        private final Iterator<Shard> mShardIter = mShards.values().iterator();
+        private final ListVisitor mReady = new ListVisitor();
+        private final Stitcher mStitcher = new Stitcher( mReady );
+        private int mReadyPos = 0;
+        private boolean mFinished = false;
+        private TimeBlock mPrev = null;
+
+        @Override
+        public boolean hasNext() {
+            while( mReadyPos == mReady.mList.size() ) {
+                if( mFinished ) {
+                    return false;
+                }
+                mReady.mList.clear();
+                mReadyPos = 0;
+                if( !mShardIter.hasNext() ) {
+                    mStitcher.finish();
+                    mFinished = true;
+                    continue;
+                }
+                Shard shard = mShardIter.next();
+                mStitcher.mSize = 0;
+                synchronized( shard ) {
+                    if( shard.mDead ) {
+                        continue;
+                    }
+                    shard.intersect( Long.MIN_VALUE, Long.MAX_VALUE, mStitcher );
+                }
+                mStitcher.flushShard();
+            }
+            return true;
+        }
+
+        @Override
+        public TimeBlock next() {
+            if( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            mPrev = mReady.mList.get( mReadyPos++ );
+            return mPrev;
+        }
+
+        @Override
+        public void remove() {
+            if( mPrev == null ) {
+                throw new IllegalStateException();
+            }
+            ShardedTimeSet.this.remove( mPrev.startMicros(), mPrev.stopMicros() );
+            mPrev = null;
+        }
+
+    }
+
+
+    private static final RangeVisitor STOP_VISITOR = new RangeVisitor() {
+        @Override
+        public boolean visit( long startMicros, long stopMicros ) {
+            return false;
+        }
+    };
+
+
+    private static final class ListVisitor implements RangeVisitor {
+        final List<TimeBlock> mList = new ArrayList<TimeBlock>();
+
+        @Override
+        public boolean visit( long startMicros, long stopMicros ) {
+            mList.add( new TimeBlock( startMicros, stopMicros ) );
+            return true;
+        }
+    }
+
+}
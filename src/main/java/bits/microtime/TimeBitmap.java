@@ -0,0 +1,996 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.util.*;
+
+
+/**
+ * Set of time covered at a fixed granularity, for coverage that is too fragmented
+ * to hold efficiently in a TimeSet, such as per-frame availability. Time is divided
+ * into units of {@code quantumMicros}, aligned to {@code originMicros}, and each unit
+ * is either covered or not. Ranges passed to {@code add} and {@code remove} are
+ * rounded outward to whole units.
+ * <p>
+ * Units are grouped into chunks of 2<sup>16</sup>, after Roaring bitmaps. Each chunk is
+ * stored either as a list of runs or, if it holds more than {@code 1024} runs, as
+ * a plain 8 KB bitmap. Set algebra between bitmaps with the same quantum and origin
+ * runs chunk by chunk with bitwise operations.
+ * <p>
+ * Adding and removing ranges does not convert bitmap chunks back to runs.
+ * Call {@link #optimize()} after large changes to recompress them.
+ *
+ * @author Philip DeCamp
+ */
+public class TimeBitmap {
+
+    private static final int OP_OR     = 0;
+    private static final int OP_AND    = 1;
+    private static final int OP_ANDNOT = 2;
+
+    private final long mQuantum;
+    private final long mOrigin;
+
+    private long[]      mKeys       = new long[4];
+    private Container[] mContainers = new Container[4];
+    private int         mSize       = 0;
+
+
+    public TimeBitmap( long quantumMicros ) {
+        this( quantumMicros, 0L );
+    }
+
+
+    public TimeBitmap( long quantumMicros, long originMicros ) {
+        if( quantumMicros <= 0 ) {
+            throw new IllegalArgumentException( "quantumMicros must be positive" );
+        }
+        mQuantum = quantumMicros;
+        mOrigin  = originMicros;
+    }
+
+
+    public TimeBitmap( TimeBitmap copy ) {
+        mQuantum    = copy.mQuantum;
+        mOrigin     = copy.mOrigin;
+        mSize       = copy.mSize;
+        mKeys       = Arrays.copyOf( copy.mKeys, Math.max( 4, mSize ) );
+        mContainers = new Container[mKeys.length];
+        for( int i = 0; i < mSize; i++ ) {
+            mContainers[i] = copy.mContainers[i].copy();
+        }
+    }
+
+    /**
+     * @return new TimeBitmap covering every unit that intersects a block of {@code set}.
+     */
+    public static TimeBitmap fromTimeSet( TimeSet set, long quantumMicros ) {
+        return fromTimeSet( set, quantumMicros, 0L );
+    }
+
+    /**
+     * @return new TimeBitmap covering every unit that intersects a block of {@code set}.
+     */
+    public static TimeBitmap fromTimeSet( TimeSet set, long quantumMicros, long originMicros ) {
+        final TimeBitmap ret = new TimeBitmap( quantumMicros, originMicros );
+        set.visit( new RangeVisitor() {
+            @Override
+            public boolean visit( long startMicros, long stopMicros ) {
+                ret.add( startMicros, stopMicros );
+                return true;
+            }
+        } );
+        return ret;
+    }
+
+
+    public long quantumMicros() {
+        return mQuantum;
+    }
+
+
+    public long originMicros() {
+        return mOrigin;
+    }
+
+    /**
+     * Marks every unit that intersects [startMicros, stopMicros) as covered.
+     *
+     * @return true iff set was modified.
+     */
+    public boolean add( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return false;
+        }
+
+        long lo = unitFloor( startMicros );
+        long hi = unitCeil( stopMicros );
+        boolean changed = false;
+
+        while( lo < hi ) {
+            long key  = lo >> 16;
+            long base = key << 16;
+            long end  = Math.min( hi, base + Container.BITS );
+            int idx   = Arrays.binarySearch( mKeys, 0, mSize, key );
+
+            if( idx >= 0 ) {
+                changed |= mContainers[idx].add( (int)( lo - base ), (int)( end - base ) );
+            } else {
+                insertContainer( -idx - 1, key, Container.ofRange( (int)( lo - base ), (int)( end - base ) ) );
+                changed = true;
+            }
+            lo = end;
+        }
+
+        return changed;
+    }
+
+    /**
+     * Clears every unit that intersects [startMicros, stopMicros).
+     *
+     * @return true iff set was modified.
+     */
+    public boolean remove( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros || mSize == 0 ) {
+            return false;
+        }
+
+        long lo = unitFloor( startMicros );
+        long hi = unitCeil( stopMicros );
+        boolean changed = false;
+
+        while( lo < hi ) {
+            long key  = lo >> 16;
+            long base = key << 16;
+            long end  = Math.min( hi, base + Container.BITS );
+            int idx   = Arrays.binarySearch( mKeys, 0, mSize, key );
+
+            if( idx >= 0 ) {
+                Container c = mContainers[idx];
+                if( c.remove( (int)( lo - base ), (int)( end - base ) ) ) {
+                    changed = true;
+                    if( c.isEmpty() ) {
+                        removeContainer( idx );
+                    }
+                }
+            } else {
+                // Skip ahead to next container.
+                idx = -idx - 1;
+                if( idx >= mSize ) {
+                    break;
+                }
+                end = Math.min( hi, mKeys[idx] << 16 );
+            }
+            lo = end;
+        }
+
+        return changed;
+    }
+
+
+    public void clear() {
+        Arrays.fill( mContainers, 0, mSize, null );
+        mSize = 0;
+    }
+
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @return true iff the unit containing timeMicro is covered.
+     */
+    public boolean contains( long timeMicro ) {
+        long u = unitFloor( timeMicro );
+        int idx = Arrays.binarySearch( mKeys, 0, mSize, u >> 16 );
+        return idx >= 0 && mContainers[idx].contains( (int)( u & 0xFFFF ) );
+    }
+
+    /**
+     * @return true iff every unit intersecting [startMicros, stopMicros) is covered.
+     */
+    public boolean contains( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return false;
+        }
+
+        long lo = unitFloor( startMicros );
+        long hi = unitCeil( stopMicros );
+
+        while( lo < hi ) {
+            long key  = lo >> 16;
+            long base = key << 16;
+            long end  = Math.min( hi, base + Container.BITS );
+            int idx   = Arrays.binarySearch( mKeys, 0, mSize, key );
+            if( idx < 0 || !mContainers[idx].containsRange( (int)( lo - base ), (int)( end - base ) ) ) {
+                return false;
+            }
+            lo = end;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return number of covered units.
+     */
+    public long cardinality() {
+        long sum = 0;
+        for( int i = 0; i < mSize; i++ ) {
+            sum += mContainers[i].cardinality();
+        }
+        return sum;
+    }
+
+    /**
+     * @return total microseconds covered.
+     */
+    public long coveredMicros() {
+        return cardinality() * mQuantum;
+    }
+
+    /**
+     * Returns the smallest TimeBlock that is a superset of this set.
+     *
+     * @return superset of set, or NULL if set is empty.
+     */
+    public TimeBlock range() {
+        if( mSize == 0 ) {
+            return null;
+        }
+        long first = ( mKeys[0] << 16 ) + mContainers[0].first();
+        long last  = ( mKeys[mSize - 1] << 16 ) + mContainers[mSize - 1].last();
+        return new TimeBlock( toMicros( first ), toMicros( last ) );
+    }
+
+
+    public List<TimeBlock> intersect( TimeBlock range ) {
+        return intersect( range.startMicros(), range.stopMicros() );
+    }
+
+
+    public List<TimeBlock> intersect( long startMicros, long stopMicros ) {
+        final List<TimeBlock> ret = new ArrayList<TimeBlock>();
+        intersect( startMicros, stopMicros, new RangeVisitor() {
+            @Override
+            public boolean visit( long start, long stop ) {
+                ret.add( new TimeBlock( start, stop ) );
+                return true;
+            }
+        } );
+        return ret;
+    }
+
+    /**
+     * Passes each covered range that intersects [startMicros, stopMicros), clipped
+     * to that range, to {@code visitor}.
+     *
+     * @return true if all ranges were visited, false if visitor stopped early.
+     */
+    public boolean intersect( long startMicros, long stopMicros, RangeVisitor visitor ) {
+        if( stopMicros <= startMicros ) {
+            return true;
+        }
+        long unit = unitFloor( startMicros );
+        int idx = Arrays.binarySearch( mKeys, 0, mSize, unit >> 16 );
+        if( idx >= 0 ) {
+            return scan( idx, (int)( unit & 0xFFFF ), startMicros, stopMicros, visitor );
+        }
+        return scan( -idx - 1, 0, startMicros, stopMicros, visitor );
+    }
+
+
+    public List<TimeBlock> subtractFrom( TimeBlock range ) {
+        return subtractFrom( range.startMicros(), range.stopMicros() );
+    }
+
+
+    public List<TimeBlock> subtractFrom( long startMicros, long stopMicros ) {
+        final List<TimeBlock> ret = new ArrayList<TimeBlock>();
+        subtractFrom( startMicros, stopMicros, new RangeVisitor() {
+            @Override
+            public boolean visit( long start, long stop ) {
+                ret.add( new TimeBlock( start, stop ) );
+                return true;
+            }
+        } );
+        return ret;
+    }
+
+    /**
+     * Passes each uncovered range within [startMicros, stopMicros) to {@code visitor}.
+     *
+     * @return true if all ranges were visited, false if visitor stopped early.
+     */
+    public boolean subtractFrom( long startMicros, long stopMicros, RangeVisitor visitor ) {
+        if( stopMicros <= startMicros ) {
+            return true;
+        }
+        GapVisitor gaps = new GapVisitor( startMicros, visitor );
+        if( !intersect( startMicros, stopMicros, gaps ) ) {
+            return false;
+        }
+        return gaps.mPos >= stopMicros || visitor.visit( gaps.mPos, stopMicros );
+    }
+
+    /**
+     * Passes every covered range, in order, to {@code visitor}.
+     *
+     * @return true if all ranges were visited, false if visitor stopped early.
+     */
+    public boolean visit( RangeVisitor visitor ) {
+        return scan( 0, 0, Long.MIN_VALUE, Long.MAX_VALUE, visitor );
+    }
+
+    /**
+     * @return new TimeSet holding the same coverage.
+     */
+    public TimeSet toTimeSet() {
+        final long[][] buf = { new long[16], new long[16] };
+        final int[] size = { 0 };
+
+        visit( new RangeVisitor() {
+            @Override
+            public boolean visit( long startMicros, long stopMicros ) {
+                int n = size[0];
+                if( n == buf[0].length ) {
+                    buf[0] = Arrays.copyOf( buf[0], n * 2 );
+                    buf[1] = Arrays.copyOf( buf[1], n * 2 );
+                }
+                buf[0][n] = startMicros;
+                buf[1][n] = stopMicros;
+                size[0] = n + 1;
+                return true;
+            }
+        } );
+
+        return TimeSet.fromArrays( buf[0], buf[1], 0, size[0] );
+    }
+
+    /**
+     * Converts bitmap chunks back to run lists where that is smaller.
+     */
+    public void optimize() {
+        for( int i = 0; i < mSize; i++ ) {
+            mContainers[i].optimize();
+        }
+    }
+
+    /**
+     * Adds all units of {@code other} to this set.
+     *
+     * @return true iff this set was modified.
+     * @throws IllegalArgumentException if other has a different quantum or origin.
+     */
+    public boolean union( TimeBitmap other ) {
+        return combine( other, OP_OR );
+    }
+
+    /**
+     * Removes all units not in {@code other} from this set.
+     *
+     * @return true iff this set was modified.
+     * @throws IllegalArgumentException if other has a different quantum or origin.
+     */
+    public boolean intersection( TimeBitmap other ) {
+        return combine( other, OP_AND );
+    }
+
+    /**
+     * Removes all units of {@code other} from this set.
+     *
+     * @return true iff this set was modified.
+     * @throws IllegalArgumentException if other has a different quantum or origin.
+     */
+    public boolean difference( TimeBitmap other ) {
+        return combine( other, OP_ANDNOT );
+    }
+
+
+    public static TimeBitmap union( TimeBitmap a, TimeBitmap b ) {
+        TimeBitmap ret = new TimeBitmap( a );
+        ret.union( b );
+        return ret;
+    }
+
+
+    public static TimeBitmap intersection( TimeBitmap a, TimeBitmap b ) {
+        TimeBitmap ret = new TimeBitmap( a );
+        ret.intersection( b );
+        return ret;
+    }
+
+
+    public static TimeBitmap difference( TimeBitmap a, TimeBitmap b ) {
+        TimeBitmap ret = new TimeBitmap( a );
+        ret.difference( b );
+        return ret;
+    }
+
+
+
+    private boolean combine( TimeBitmap other, int op ) {
+        if( other.mQuantum != mQuantum || other.mOrigin != mOrigin ) {
+            throw new IllegalArgumentException( "TimeBitmaps have different quantum or origin" );
+        }
+
+        long[] keys       = new long[Math.max( 4, mSize + other.mSize )];
+        Container[] conts = new Container[keys.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        boolean changed = false;
+
+        while( i < mSize || j < other.mSize ) {
+            long ka = i < mSize ? mKeys[i] : Long.MAX_VALUE;
+            long kb = j < other.mSize ? other.mKeys[j] : Long.MAX_VALUE;
+            long key;
+            Container c;
+
+            if( ka == kb ) {
+                Container a = mContainers[i++];
+                c = Container.combine( a, other.mContainers[j++], op );
+                changed |= c == null || c.cardinality() != a.cardinality();
+                key = ka;
+            } else if( ka < kb ) {
+                c = op == OP_AND ? null : mContainers[i];
+                changed |= c == null;
+                key = ka;
+                i++;
+            } else {
+                c = op == OP_OR ? other.mContainers[j].copy() : null;
+                changed |= c != null;
+                key = kb;
+                j++;
+            }
+
+            if( c != null ) {
+                keys[n]  = key;
+                conts[n] = c;
+                n++;
+            }
+        }
+
+        mKeys       = keys;
+        mContainers = conts;
+        mSize       = n;
+        return changed;
+    }
+
+    /**
+     * Visits covered ranges from containers at or after {@code idx}, starting at unit
+     * {@code offset} of container {@code idx}, merging runs that continue across
+     * container boundaries and clipping them to [clipStart, clipStop).
+     */
+    private boolean scan( int idx, int offset, long clipStart, long clipStop, RangeVisitor visitor ) {
+        boolean pending = false;
+        long runStart   = 0;
+        long runStop    = 0;
+
+        outer:
+        for( int i = idx; i < mSize; i++ ) {
+            long base = mKeys[i] << 16;
+            Container c = mContainers[i];
+            int pos = i == idx ? offset : 0;
+            int r = 0;
+
+            if( c.mBits == null ) {
+                // Skip directly to first run that ends after pos.
+                r = Math.max( 0, Container.findRun( c.mRuns, pos ) );
+                if( r * 2 < c.mRuns.length && c.mRuns[r * 2 + 1] <= pos ) {
+                    r++;
+                }
+            }
+
+            while( true ) {
+                long start;
+                long stop;
+                if( c.mBits != null ) {
+                    int lo = pos < Container.BITS ? Container.nextSet( c.mBits, pos ) : -1;
+                    if( lo < 0 ) {
+                        break;
+                    }
+                    pos   = Container.nextClear( c.mBits, lo );
+                    start = base + lo;
+                    stop  = base + pos;
+                } else {
+                    if( r * 2 >= c.mRuns.length ) {
+                        break;
+                    }
+                    start = base + c.mRuns[r * 2];
+                    stop  = base + c.mRuns[r * 2 + 1];
+                    r++;
+                }
+
+                if( toMicros( start ) >= clipStop ) {
+                    break outer;
+                }
+                if( pending && start == runStop ) {
+                    runStop = stop;
+                    continue;
+                }
+                if( pending && !emit( runStart, runStop, clipStart, clipStop, visitor ) ) {
+                    return false;
+                }
+                pending  = true;
+                runStart = start;
+                runStop  = stop;
+            }
+        }
+
+        return !pending || emit( runStart, runStop, clipStart, clipStop, visitor );
+    }
+
+
+    private boolean emit( long startUnit, long stopUnit, long clipStart, long clipStop, RangeVisitor visitor ) {
+        long start = Math.max( toMicros( startUnit ), clipStart );
+        long stop  = Math.min( toMicros( stopUnit ), clipStop );
+        return start >= stop || visitor.visit( start, stop );
+    }
+
+
+    private void insertContainer( int idx, long key, Container c ) {
+        if( mSize == mKeys.length ) {
+            mKeys       = Arrays.copyOf( mKeys, mSize * 2 );
+            mContainers = Arrays.copyOf( mContainers, mSize * 2 );
+        }
+        System.arraycopy( mKeys, idx, mKeys, idx + 1, mSize - idx );
+        System.arraycopy( mContainers, idx, mContainers, idx + 1, mSize - idx );
+        mKeys[idx]       = key;
+        mContainers[idx] = c;
+        mSize++;
+    }
+
+
+    private void removeContainer( int idx ) {
+        System.arraycopy( mKeys, idx + 1, mKeys, idx, mSize - idx - 1 );
+        System.arraycopy( mContainers, idx + 1, mContainers, idx, mSize - idx - 1 );
+        mContainers[--mSize] = null;
+    }
+
+
+    private long unitFloor( long t ) {
+        return floorDiv( t - mOrigin, mQuantum );
+    }
+
+
+    private long unitCeil( long t ) {
+        return -floorDiv( mOrigin - t, mQuantum );
+    }
+
+
+    private long toMicros( long unit ) {
+        return mOrigin + unit * mQuantum;
+    }
+
+
+    private static long floorDiv( long a, long b ) {
+        long q = a / b;
+        if( a % b != 0 && ( a ^ b ) < 0 ) {
+            q--;
+        }
+        return q;
+    }
+
+
+    /**
+     * Coverage of one chunk of 2<sup>16</sup> units, as either a list of runs or a bitmap.
+     */
+    private static final class Container {
+
+        static final int BITS     = 1 << 16;
+        static final int WORDS    = BITS / 64;
+        static final int MAX_RUNS = 1024;
+
+        // Disjoint, non-adjacent [start, stop) pairs of unit offsets, or null if bitmap.
+        int[]  mRuns = null;
+        // Bitmap of WORDS longs, or null if runs.
+        long[] mBits = null;
+        // Cardinality of bitmap.
+        int    mCard = 0;
+
+
+        static Container ofRange( int lo, int hi ) {
+            Container ret = new Container();
+            ret.mRuns = new int[]{ lo, hi };
+            return ret;
+        }
+
+
+        static Container fromBits( long[] bits ) {
+            int card = 0;
+            for( long w : bits ) {
+                card += Long.bitCount( w );
+            }
+            if( card == 0 ) {
+                return null;
+            }
+
+            Container ret = new Container();
+            int runCount = countRuns( bits );
+            if( runCount <= MAX_RUNS ) {
+                ret.mRuns = bitsToRuns( bits, runCount );
+            } else {
+                ret.mBits = bits;
+                ret.mCard = card;
+            }
+            return ret;
+        }
+
+
+        static Container combine( Container a, Container b, int op ) {
+            long[] x = a.toBits();
+            long[] y = b.mBits != null ? b.mBits : b.toBits();
+
+            switch( op ) {
+            case OP_OR:
+                for( int i = 0; i < WORDS; i++ ) {
+                    x[i] |= y[i];
+                }
+                break;
+            case OP_AND:
+                for( int i = 0; i < WORDS; i++ ) {
+                    x[i] &= y[i];
+                }
+                break;
+            default:
+                for( int i = 0; i < WORDS; i++ ) {
+                    x[i] &= ~y[i];
+                }
+                break;
+            }
+
+            return fromBits( x );
+        }
+
+
+        Container copy() {
+            Container ret = new Container();
+            ret.mRuns = mRuns == null ? null : mRuns.clone();
+            ret.mBits = mBits == null ? null : mBits.clone();
+            ret.mCard = mCard;
+            return ret;
+        }
+
+
+        boolean isEmpty() {
+            return mBits != null ? mCard == 0 : mRuns.length == 0;
+        }
+
+
+        int cardinality() {
+            if( mBits != null ) {
+                return mCard;
+            }
+            int sum = 0;
+            for( int i = 0; i < mRuns.length; i += 2 ) {
+                sum += mRuns[i + 1] - mRuns[i];
+            }
+            return sum;
+        }
+
+
+        boolean contains( int i ) {
+            if( mBits != null ) {
+                return ( mBits[i >>> 6] & ( 1L << i ) ) != 0;
+            }
+            int r = findRun( mRuns, i );
+            return r >= 0 && i < mRuns[r * 2 + 1];
+        }
+
+
+        boolean containsRange( int lo, int hi ) {
+            if( mBits != null ) {
+                return countRange( mBits, lo, hi ) == hi - lo;
+            }
+            int r = findRun( mRuns, lo );
+            return r >= 0 && hi <= mRuns[r * 2 + 1];
+        }
+
+
+        boolean add( int lo, int hi ) {
+            if( mBits != null ) {
+                int n = setRange( mBits, lo, hi );
+                mCard += n;
+                return n > 0;
+            }
+            if( containsRange( lo, hi ) ) {
+                return false;
+            }
+            mRuns = addRun( mRuns, lo, hi );
+            if( mRuns.length / 2 > MAX_RUNS ) {
+                convertToBits();
+            }
+            return true;
+        }
+
+
+        boolean remove( int lo, int hi ) {
+            if( mBits != null ) {
+                int n = clearRange( mBits, lo, hi );
+                mCard -= n;
+                return n > 0;
+            }
+            int[] runs = removeRun( mRuns, lo, hi );
+            if( runs == mRuns ) {
+                return false;
+            }
+            mRuns = runs;
+            if( mRuns.length / 2 > MAX_RUNS ) {
+                convertToBits();
+            }
+            return true;
+        }
+
+
+        void optimize() {
+            if( mBits == null ) {
+                return;
+            }
+            int runCount = countRuns( mBits );
+            if( runCount <= MAX_RUNS ) {
+                mRuns = bitsToRuns( mBits, runCount );
+                mBits = null;
+                mCard = 0;
+            }
+        }
+
+        /**
+         * @return first covered offset.
+         */
+        int first() {
+            return mBits != null ? nextSet( mBits, 0 ) : mRuns[0];
+        }
+
+        /**
+         * @return last covered offset, plus one.
+         */
+        int last() {
+            if( mBits == null ) {
+                return mRuns[mRuns.length - 1];
+            }
+            for( int w = WORDS - 1; w >= 0; w-- ) {
+                if( mBits[w] != 0 ) {
+                    return w * 64 + 64 - Long.numberOfLeadingZeros( mBits[w] );
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return copy of this container as a bitmap.
+         */
+        long[] toBits() {
+            if( mBits != null ) {
+                return mBits.clone();
+            }
+            long[] ret = new long[WORDS];
+            for( int i = 0; i < mRuns.length; i += 2 ) {
+                setRange( ret, mRuns[i], mRuns[i + 1] );
+            }
+            return ret;
+        }
+
+
+        private void convertToBits() {
+            mCard = cardinality();
+            mBits = toBits();
+            mRuns = null;
+        }
+
+        /**
+         * @return index of last run starting at or before i, or -1 if none.
+         */
+        private static int findRun( int[] runs, int i ) {
+            int lo = 0;
+            int hi = runs.length / 2 - 1;
+            while( lo <= hi ) {
+                int mid = ( lo + hi ) >>> 1;
+                if( runs[mid * 2] <= i ) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return hi;
+        }
+
+
+        private static int[] addRun( int[] runs, int lo, int hi ) {
+            int n = runs.length / 2;
+            int r = findRun( runs, lo );
+            int i = r >= 0 && runs[r * 2 + 1] >= lo ? r : r + 1;
+            int j = findRun( runs, hi ) + 1;
+
+            if( i < j ) {
+                lo = Math.min( lo, runs[i * 2] );
+                hi = Math.max( hi, runs[j * 2 - 1] );
+            }
+            if( j - i == 1 ) {
+                runs[i * 2]     = lo;
+                runs[i * 2 + 1] = hi;
+                return runs;
+            }
+
+            int[] ret = new int[( n - ( j - i ) + 1 ) * 2];
+            System.arraycopy( runs, 0, ret, 0, i * 2 );
+            ret[i * 2]     = lo;
+            ret[i * 2 + 1] = hi;
+            System.arraycopy( runs, j * 2, ret, i * 2 + 2, ( n - j ) * 2 );
+            return ret;
+        }
+
+
+        private static int[] removeRun( int[] runs, int lo, int hi ) {
+            int n = runs.length / 2;
+            int r = findRun( runs, lo );
+            int i = r >= 0 && runs[r * 2 + 1] > lo ? r : r + 1;
+            int j = findRun( runs, hi - 1 ) + 1;
+            if( i >= j ) {
+                return runs;
+            }
+
+            boolean left  = runs[i * 2] < lo;
+            boolean right = runs[j * 2 - 1] > hi;
+            int[] ret = new int[( n - ( j - i ) + ( left ? 1 : 0 ) + ( right ? 1 : 0 ) ) * 2];
+            int k = i * 2;
+            System.arraycopy( runs, 0, ret, 0, k );
+            if( left ) {
+                ret[k++] = runs[i * 2];
+                ret[k++] = lo;
+            }
+            if( right ) {
+                ret[k++] = hi;
+                ret[k++] = runs[j * 2 - 1];
+            }
+            System.arraycopy( runs, j * 2, ret, k, ( n - j ) * 2 );
+            return ret;
+        }
+
+        /**
+         * @return number of bits newly set.
+         */
+        private static int setRange( long[] bits, int lo, int hi ) {
+            int w0 = lo >>> 6;
+            int w1 = ( hi - 1 ) >>> 6;
+            int added = 0;
+
+            for( int w = w0; w <= w1; w++ ) {
+                long mask = rangeMask( w, w0, w1, lo, hi );
+                long old  = bits[w];
+                bits[w] = old | mask;
+                added += Long.bitCount( mask & ~old );
+            }
+
+            return added;
+        }
+
+        /**
+         * @return number of bits cleared.
+         */
+        private static int clearRange( long[] bits, int lo, int hi ) {
+            int w0 = lo >>> 6;
+            int w1 = ( hi - 1 ) >>> 6;
+            int removed = 0;
+
+            for( int w = w0; w <= w1; w++ ) {
+                long mask = rangeMask( w, w0, w1, lo, hi );
+                long old  = bits[w];
+                bits[w] = old & ~mask;
+                removed += Long.bitCount( mask & old );
+            }
+
+            return removed;
+        }
+
+
+        private static int countRange( long[] bits, int lo, int hi ) {
+            int w0 = lo >>> 6;
+            int w1 = ( hi - 1 ) >>> 6;
+            int count = 0;
+
+            for( int w = w0; w <= w1; w++ ) {
+                count += Long.bitCount( bits[w] & rangeMask( w, w0, w1, lo, hi ) );
+            }
+
+            return count;
+        }
+
+
+        private static long rangeMask( int w, int w0, int w1, int lo, int hi ) {
+            long mask = -1L;
+            if( w == w0 ) {
+                mask &= -1L << lo;
+            }
+            if( w == w1 ) {
+                mask &= -1L >>> ( 63 - ( ( hi - 1 ) & 63 ) );
+            }
+            return mask;
+        }
+
+
+        private static int countRuns( long[] bits ) {
+            int count  = 0;
+            long carry = 0;
+            for( long w : bits ) {
+                count += Long.bitCount( w & ~( ( w << 1 ) | carry ) );
+                carry = w >>> 63;
+            }
+            return count;
+        }
+
+
+        private static int[] bitsToRuns( long[] bits, int runCount ) {
+            int[] ret = new int[runCount * 2];
+            int k = 0;
+            int pos = nextSet( bits, 0 );
+
+            while( pos >= 0 ) {
+                int end = nextClear( bits, pos );
+                ret[k++] = pos;
+                ret[k++] = end;
+                pos = end < BITS ? nextSet( bits, end ) : -1;
+            }
+
+            return ret;
+        }
+
+
+        private static int nextSet( long[] bits, int from ) {
+            int w  = from >>> 6;
+            long v = bits[w] & ( -1L << from );
+            while( true ) {
+                if( v != 0 ) {
+                    return w * 64 + Long.numberOfTrailingZeros( v );
+                }
+                if( ++w == WORDS ) {
+                    return -1;
+                }
+                v = bits[w];
+            }
+        }
+
+
+        private static int nextClear( long[] bits, int from ) {
+            int w  = from >>> 6;
+            long v = ~bits[w] & ( -1L << from );
+            while( true ) {
+                if( v != 0 ) {
+                    return w * 64 + Long.numberOfTrailingZeros( v );
+                }
+                if( ++w == WORDS ) {
+                    return BITS;
+                }
+                v = ~bits[w];
+            }
+        }
+
+    }
+
+
+    private static final class GapVisitor implements RangeVisitor {
+
+        final RangeVisitor mOut;
+        long mPos;
+
+        GapVisitor( long start, RangeVisitor out ) {
+            mPos = start;
+            mOut = out;
+        }
+
+        @Override
+        public boolean visit( long startMicros, long stopMicros ) {
+            if( startMicros > mPos && !mOut.visit( mPos, startMicros ) ) {
+                return false;
+            }
+            mPos = stopMicros;
+            return true;
+        }
+    }
+
+}
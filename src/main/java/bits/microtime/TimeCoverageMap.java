@@ -0,0 +1,602 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+
+/**
+ * Counts how many times each instant has been covered. Unlike TimeSet, overlapping
+ * ranges are not merged: adding [a, b) twice leaves a count of two across that range,
+ * and removing it once leaves a count of one.
+ * <p>
+ * Counts are piecewise constant and stored as a red-black tree of boundary times, each
+ * holding the change in count at that time. Subtrees keep the sum of their changes
+ * and the minimum and maximum running count within them, so {@code add}, {@code remove},
+ * {@link #countAt} and {@link #maxDepth(long, long)} are all O(log n) and
+ * {@link #atLeast(int, long, long, RangeVisitor)} only descends into subtrees
+ * where the count crosses the threshold.
+ * <p>
+ * Ranges passed to {@code remove} should match ranges previously added. Counts are
+ * not checked and may go negative otherwise.
+ *
+ * @author Philip DeCamp
+ */
+public class TimeCoverageMap {
+
+    private static final boolean BLACK = false;
+    private static final boolean RED   = true;
+
+    private Node mRoot = null;
+    private int  mSize = 0;
+
+
+    public TimeCoverageMap() {}
+
+    /**
+     * Increments count over [startMicros, stopMicros).
+     *
+     * @return true iff range is non-empty.
+     */
+    public boolean add( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return false;
+        }
+        addDelta( startMicros, 1 );
+        addDelta( stopMicros, -1 );
+        return true;
+    }
+
+    /**
+     * Decrements count over [startMicros, stopMicros).
+     *
+     * @return true iff range is non-empty.
+     */
+    public boolean remove( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return false;
+        }
+        addDelta( startMicros, -1 );
+        addDelta( stopMicros, 1 );
+        return true;
+    }
+
+
+    public void clear() {
+        mRoot = null;
+        mSize = 0;
+    }
+
+    /**
+     * @return true iff count is zero everywhere.
+     */
+    public boolean isEmpty() {
+        return mRoot == null;
+    }
+
+    /**
+     * @return number of times at which the count changes.
+     */
+    public int boundaryCount() {
+        return mSize;
+    }
+
+    /**
+     * @return number of ranges covering {@code timeMicro}. O(log n).
+     */
+    public int countAt( long timeMicro ) {
+        Node node = mRoot;
+        int count = 0;
+
+        while( node != null ) {
+            if( timeMicro < node.mTime ) {
+                node = node.mLeft;
+            } else {
+                count += node.mDelta + ( node.mLeft == null ? 0 : node.mLeft.mSum );
+                node = node.mRight;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return greatest count at any time.
+     */
+    public int maxDepth() {
+        return mRoot == null ? 0 : Math.max( 0, mRoot.mMaxPrefix );
+    }
+
+    /**
+     * @return greatest count at any time in [startMicros, stopMicros), or 0 if range is empty. O(log n).
+     */
+    public int maxDepth( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return 0;
+        }
+        int base = countAt( startMicros );
+        return Math.max( base, maxPrefixIn( mRoot, startMicros, stopMicros, 0 ) );
+    }
+
+    /**
+     * Passes each maximal range within [startMicros, stopMicros) where count is at
+     * least {@code minCount}, in order, to {@code visitor}.
+     *
+     * @param minCount  Positive count threshold.
+     * @return true if all ranges were visited, false if visitor stopped early.
+     */
+    public boolean atLeast( int minCount, long startMicros, long stopMicros, RangeVisitor visitor ) {
+        if( stopMicros <= startMicros ) {
+            return true;
+        }
+
+        RunFinder finder = new RunFinder( minCount, startMicros, stopMicros, visitor );
+        finder.mCount = countAt( startMicros );
+        finder.mIn    = finder.mCount >= minCount;
+        finder.mRunStart = startMicros;
+
+        if( !finder.visit( mRoot ) ) {
+            return false;
+        }
+        return !finder.mIn || visitor.visit( finder.mRunStart, stopMicros );
+    }
+
+    /**
+     * @return TimeSet of all times where count is at least {@code minCount}.
+     */
+    public TimeSet atLeast( int minCount ) {
+        final TimeSet ret = new TimeSet();
+        atLeast( minCount, Long.MIN_VALUE, Long.MAX_VALUE, new RangeVisitor() {
+            @Override
+            public boolean visit( long startMicros, long stopMicros ) {
+                ret.add( startMicros, stopMicros );
+                return true;
+            }
+        } );
+        return ret;
+    }
+
+
+
+    private void addDelta( long t, int delta ) {
+        Node node = mRoot;
+        Node parent = null;
+        boolean left = false;
+
+        while( node != null ) {
+            if( t < node.mTime ) {
+                parent = node;
+                node = node.mLeft;
+                left = true;
+            } else if( t > node.mTime ) {
+                parent = node;
+                node = node.mRight;
+                left = false;
+            } else {
+                node.mDelta += delta;
+                if( node.mDelta == 0 ) {
+                    removeNode( node );
+                } else {
+                    updatePath( node );
+                }
+                return;
+            }
+        }
+
+        insertNode( new Node( t, delta ), parent, left );
+    }
+
+    /**
+     * @return greatest running count, offset by {@code base}, at any boundary
+     *         in node's subtree strictly inside (lo, hi), or Integer.MIN_VALUE if none.
+     */
+    private static int maxPrefixIn( Node node, long lo, long hi, int base ) {
+        if( node == null || node.mMaxTime <= lo || node.mMinTime >= hi ) {
+            return Integer.MIN_VALUE;
+        }
+        if( lo < node.mMinTime && node.mMaxTime < hi ) {
+            return base + node.mMaxPrefix;
+        }
+
+        int ret  = maxPrefixIn( node.mLeft, lo, hi, base );
+        int here = base + node.mDelta + ( node.mLeft == null ? 0 : node.mLeft.mSum );
+        if( lo < node.mTime && node.mTime < hi ) {
+            ret = Math.max( ret, here );
+        }
+        return Math.max( ret, maxPrefixIn( node.mRight, lo, hi, here ) );
+    }
+
+
+    private void insertNode( Node node, Node parent, boolean left ) {
+        mSize++;
+
+        if( parent == null ) {
+            mRoot = node;
+            node.mColor = BLACK;
+            return;
+        }
+
+        node.mParent = parent;
+
+        if( left ) {
+            parent.mLeft = node;
+        } else {
+            parent.mRight = node;
+        }
+
+        updatePath( parent );
+
+        while( true ) {
+            if( parent == null ) {
+                node.mColor = BLACK;
+                return;
+            }
+
+            node.mColor = RED;
+
+            if( parent.mColor == BLACK ) {
+                return;
+            }
+
+            Node grandParent = parent.mParent;
+            Node uncle = ( grandParent.mLeft == parent ? grandParent.mRight : grandParent.mLeft );
+
+            if( uncle != null && uncle.mColor == RED ) {
+                parent.mColor = BLACK;
+                uncle.mColor = BLACK;
+                grandParent.mColor = RED;
+
+                node = grandParent;
+                parent = grandParent.mParent;
+                left = ( parent == null || parent.mLeft == node );
+
+                continue;
+            }
+
+            if( !left && parent == grandParent.mLeft ) {
+                rotateLeft( parent );
+                parent = node;
+                node = parent.mLeft;
+                left = true;
+
+            } else if( left && parent == grandParent.mRight ) {
+                rotateRight( parent );
+                parent = node;
+                node = parent.mRight;
+                left = false;
+            }
+
+            parent.mColor = BLACK;
+            grandParent.mColor = RED;
+
+            if( left ) {
+                rotateRight( grandParent );
+            } else {
+                rotateLeft( grandParent );
+            }
+
+            break;
+        }
+    }
+
+
+    private void removeNode( Node node ) {
+        mSize--;
+
+        // Nodes are not referenced outside the tree, so a node with two
+        // children takes the contents of its predecessor, which is removed instead.
+        if( node.mLeft != null && node.mRight != null ) {
+            Node pred = node.mLeft;
+            while( pred.mRight != null ) {
+                pred = pred.mRight;
+            }
+
+            node.mTime  = pred.mTime;
+            node.mDelta = pred.mDelta;
+            node = pred;
+        }
+
+        Node oldParent = node;
+        Node newParent = node.mParent;
+
+        node = ( node.mLeft == null ? node.mRight : node.mLeft );
+
+        if( node != null ) {
+            node.mParent = newParent;
+        }
+
+        if( newParent == null ) {
+            mRoot = node;
+        } else {
+            if( newParent.mLeft == oldParent ) {
+                newParent.mLeft = node;
+            } else {
+                newParent.mRight = node;
+            }
+
+            updatePath( newParent );
+        }
+
+        if( oldParent.mColor == RED ) {
+            return;
+        }
+
+        if( node != null && node.mColor == RED ) {
+            node.mColor = BLACK;
+            return;
+        }
+
+        while( true ) {
+            if( newParent == null ) {
+                return;
+            }
+
+            boolean left = node == newParent.mLeft;
+            Node sibling = left ? newParent.mRight : newParent.mLeft;
+
+            if( sibling.mColor == RED ) {
+                newParent.mColor = RED;
+                sibling.mColor = BLACK;
+
+                if( left ) {
+                    rotateLeft( newParent );
+                    sibling = newParent.mRight;
+                } else {
+                    rotateRight( newParent );
+                    sibling = newParent.mLeft;
+                }
+            }
+
+            if( ( sibling.mLeft == null || sibling.mLeft.mColor == BLACK ) &&
+                ( sibling.mRight == null || sibling.mRight.mColor == BLACK ) )
+            {
+                if( newParent.mColor == BLACK ) {
+                    sibling.mColor = RED;
+                    node = newParent;
+                    newParent = node.mParent;
+                    continue;
+                } else {
+                    sibling.mColor = RED;
+                    newParent.mColor = BLACK;
+                    return;
+                }
+            }
+
+            if( left ) {
+                if( sibling.mRight == null || sibling.mRight.mColor == BLACK ) {
+                    rotateRight( sibling );
+                    sibling = sibling.mParent;
+                }
+
+                sibling.mColor = newParent.mColor;
+                sibling.mRight.mColor = BLACK;
+                rotateLeft( newParent );
+
+            } else {
+                if( sibling.mLeft == null || sibling.mLeft.mColor == BLACK ) {
+                    rotateLeft( sibling );
+                    sibling = sibling.mParent;
+                }
+
+                sibling.mColor = newParent.mColor;
+                sibling.mLeft.mColor = BLACK;
+                rotateRight( newParent );
+            }
+
+            newParent.mColor = BLACK;
+            break;
+        }
+    }
+
+
+    private void rotateLeft( Node node ) {
+        Node right = node.mRight;
+        if( right == null ) {
+            return;
+        }
+
+        node.mRight = right.mLeft;
+        if( node.mRight != null ) {
+            node.mRight.mParent = node;
+        }
+
+        right.mLeft = node;
+
+        if( node == mRoot ) {
+            mRoot = right;
+            right.mParent = null;
+            node.mParent = right;
+        } else {
+            right.mParent = node.mParent;
+            node.mParent = right;
+
+            if( node == right.mParent.mLeft ) {
+                right.mParent.mLeft = right;
+            } else {
+                right.mParent.mRight = right;
+            }
+        }
+
+        update( node );
+        update( right );
+    }
+
+
+    private void rotateRight( Node node ) {
+        Node left = node.mLeft;
+        if( left == null ) {
+            return;
+        }
+
+        node.mLeft = left.mRight;
+        left.mRight = node;
+
+        if( node.mLeft != null ) {
+            node.mLeft.mParent = node;
+        }
+
+        if( node == mRoot ) {
+            mRoot = left;
+            left.mParent = null;
+            node.mParent = left;
+        } else {
+            left.mParent = node.mParent;
+            node.mParent = left;
+
+            if( node == left.mParent.mRight ) {
+                left.mParent.mRight = left;
+            } else {
+                left.mParent.mLeft = left;
+            }
+        }
+
+        update( node );
+        update( left );
+    }
+
+    /**
+     * Recomputes subtree aggregates of {@code node} from its children.
+     */
+    private static void update( Node node ) {
+        Node left  = node.mLeft;
+        Node right = node.mRight;
+        int here   = node.mDelta + ( left == null ? 0 : left.mSum );
+        int min    = here;
+        int max    = here;
+
+        if( left != null ) {
+            min = Math.min( min, left.mMinPrefix );
+            max = Math.max( max, left.mMaxPrefix );
+            node.mMinTime = left.mMinTime;
+        } else {
+            node.mMinTime = node.mTime;
+        }
+
+        if( right != null ) {
+            min = Math.min( min, here + right.mMinPrefix );
+            max = Math.max( max, here + right.mMaxPrefix );
+            node.mSum = here + right.mSum;
+            node.mMaxTime = right.mMaxTime;
+        } else {
+            node.mSum = here;
+            node.mMaxTime = node.mTime;
+        }
+
+        node.mMinPrefix = min;
+        node.mMaxPrefix = max;
+    }
+
+
+    private static void updatePath( Node node ) {
+        while( node != null ) {
+            update( node );
+            node = node.mParent;
+        }
+    }
+
+
+    private static class Node {
+        public long mTime;
+        public int  mDelta;
+
+        public boolean mColor  = RED;
+        public Node    mParent = null;
+        public Node    mLeft   = null;
+        public Node    mRight  = null;
+
+        // Subtree aggregates maintained by update(). Prefix values are running
+        // counts after each boundary, relative to the count before the subtree.
+        public int  mSum;
+        public int  mMinPrefix;
+        public int  mMaxPrefix;
+        public long mMinTime;
+        public long mMaxTime;
+
+        public Node( long time, int delta ) {
+            mTime = time;
+            mDelta = delta;
+            mSum = delta;
+            mMinPrefix = delta;
+            mMaxPrefix = delta;
+            mMinTime = time;
+            mMaxTime = time;
+        }
+    }
+
+    /**
+     * In-order walk over boundaries in (lo, hi) that skips subtrees in which
+     * the running count never crosses the threshold.
+     */
+    private static final class RunFinder {
+
+        final int mMin;
+        final long mLo;
+        final long mHi;
+        final RangeVisitor mOut;
+
+        int     mCount;
+        boolean mIn;
+        long    mRunStart;
+
+        RunFinder( int minCount, long lo, long hi, RangeVisitor out ) {
+            mMin = minCount;
+            mLo  = lo;
+            mHi  = hi;
+            mOut = out;
+        }
+
+
+        boolean visit( Node node ) {
+            if( node == null || node.mMaxTime <= mLo || node.mMinTime >= mHi ) {
+                return true;
+            }
+
+            if( mLo < node.mMinTime && node.mMaxTime < mHi ) {
+                if( mIn ) {
+                    if( mCount + node.mMinPrefix >= mMin ) {
+                        mCount += node.mSum;
+                        return true;
+                    }
+                    if( mCount + node.mMaxPrefix < mMin ) {
+                        mCount += node.mSum;
+                        mIn = false;
+                        return mOut.visit( mRunStart, node.mMinTime );
+                    }
+                } else {
+                    if( mCount + node.mMaxPrefix < mMin ) {
+                        mCount += node.mSum;
+                        return true;
+                    }
+                    if( mCount + node.mMinPrefix >= mMin ) {
+                        mCount += node.mSum;
+                        mIn = true;
+                        mRunStart = node.mMinTime;
+                        return true;
+                    }
+                }
+            }
+
+            if( !visit( node.mLeft ) ) {
+                return false;
+            }
+
+            if( mLo < node.mTime && node.mTime < mHi ) {
+                mCount += node.mDelta;
+                if( !mIn && mCount >= mMin ) {
+                    mIn = true;
+                    mRunStart = node.mTime;
+                } else if( mIn && mCount < mMin ) {
+                    mIn = false;
+                    if( !mOut.visit( mRunStart, node.mTime ) ) {
+                        return false;
+                    }
+                }
+            }
+
+            return visit( node.mRight );
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.util.*;
+
+
+/**
+ * Assigns values to disjoint, half-open time ranges. {@link #put} overwrites any values
+ * already assigned within its range, splitting entries that extend past either end,
+ * and merges the result with abutting entries that hold equal values. A map that
+ * labels time with a handful of states therefore holds one entry per change of state.
+ * <p>
+ * Entries are stored in sorted primitive arrays. Lookups are O(log n) and puts shift
+ * the entries that follow, so TimeMap is best for maps that are mostly appended to.
+ * See {@link LongTimeMap} and {@link IntTimeMap} for primitive values.
+ *
+ * @author Philip DeCamp
+ */
+public class TimeMap<V> extends AbstractTimeMap {
+
+    private Object[] mValues;
+
+
+    public TimeMap() {}
+
+    /**
+     * Assigns {@code value} to [startMicros, stopMicros), replacing any values there.
+     * A null value removes the range.
+     */
+    public void put( long startMicros, long stopMicros, V value ) {
+        if( stopMicros <= startMicros ) {
+            return;
+        }
+        if( value == null ) {
+            remove( startMicros, stopMicros );
+            return;
+        }
+        int idx = cut( startMicros, stopMicros, true );
+        mValues[idx] = value;
+        coalesce( idx );
+    }
+
+    /**
+     * @return value assigned at {@code timeMicro}, or null if none.
+     */
+    public V get( long timeMicro ) {
+        int idx = indexAt( timeMicro );
+        return idx < 0 ? null : valueAt( idx );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    public V valueAt( int index ) {
+        checkIndex( index );
+        return (V)mValues[index];
+    }
+
+    /**
+     * Passes each entry that intersects [startMicros, stopMicros), clipped to that range,
+     * to {@code visitor} in order.
+     *
+     * @return true if all entries were visited, false if visitor stopped early.
+     */
+    @SuppressWarnings( "unchecked" )
+    public boolean visit( long startMicros, long stopMicros, Visitor<? super V> visitor ) {
+        for( int i = firstIndexAfter( startMicros ); i < mSize && mStarts[i] < stopMicros; i++ ) {
+            long start = Math.max( startMicros, mStarts[i] );
+            long stop  = Math.min( stopMicros, mStops[i] );
+            if( !visitor.visit( start, stop, (V)mValues[i] ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return TimeSet of all times assigned a value equal to {@code value}.
+     */
+    public TimeSet rangesOf( V value ) {
+        long[] starts = new long[mSize];
+        long[] stops  = new long[mSize];
+        int n = 0;
+        for( int i = 0; i < mSize; i++ ) {
+            if( value.equals( mValues[i] ) ) {
+                starts[n] = mStarts[i];
+                stops[n]  = mStops[i];
+                n++;
+            }
+        }
+        return TimeSet.fromArrays( starts, stops, 0, n );
+    }
+
+
+    @Override
+    void resizeValues( int capacity ) {
+        mValues = mValues == null ? new Object[capacity] : Arrays.copyOf( mValues, capacity );
+    }
+
+    @Override
+    void copyValues( int src, int dst, int len ) {
+        System.arraycopy( mValues, src, mValues, dst, len );
+    }
+
+    @Override
+    void clearValues( int off ) {
+        Arrays.fill( mValues, off, mSize, null );
+    }
+
+    @Override
+    boolean valuesEqual( int a, int b ) {
+        return mValues[a].equals( mValues[b] );
+    }
+
+
+    public interface Visitor<V> {
+        /**
+         * @return true to continue visiting, false to stop.
+         */
+        boolean visit( long startMicros, long stopMicros, V value );
+    }
+
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.util.*;
+
+
+/**
+ * Index of TimeRanged items that may overlap one another, for finding every item
+ * that covers a time or intersects a range. Unlike TimeSet, items are kept as given
+ * and never merged.
+ * <p>
+ * Items are stored sorted by {@link TimeRanged#START_STOP_TIME_ORDER}, with start and
+ * stop times copied into primitive arrays. The sorted array is treated as an implicit
+ * balanced tree: the range [lo, hi) is rooted at its midpoint, and each midpoint stores
+ * the greatest stop time in its range. Queries prune on those bounds without allocating.
+ * A query returning k items visits O(log n + k log(n/k)) entries: O(log n + k) when the
+ * matches are adjacent in start order, as for items that rarely overlap one another,
+ * and up to O(log n) per match when a few long items are scattered among many short ones.
+ * <p>
+ * The index is built for bulk loading and read-mostly use. Adding items in start order
+ * only invalidates the stop bounds, which are recomputed in O(n) by the next query.
+ * Adding out of order causes a full sort on the next query, and removal is O(n). Because
+ * queries may rebuild the index, it is not safe for concurrent reads after modification.
+ * <p>
+ * An item matches a range [a, b) if {@code start < b && stop > a}. Items with
+ * {@code stop == start} match if {@code a <= start < b}.
+ *
+ * @author Philip DeCamp
+ */
+public class TimeRangedIndex<T extends TimeRanged> extends AbstractCollection<T> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private TimeRanged[] mItems;
+    private long[]   mStarts;
+    private long[]   mStops;
+    private long[]   mMaxStops;
+    private int      mSize     = 0;
+    private boolean  mSorted   = true;
+    private boolean  mBuilt    = true;
+    private int      mModCount = 0;
+
+
+    public TimeRangedIndex() {
+        this( DEFAULT_CAPACITY );
+    }
+
+
+    public TimeRangedIndex( int initialCapacity ) {
+        initialCapacity = Math.max( 1, initialCapacity );
+        mItems    = new TimeRanged[initialCapacity];
+        mStarts   = new long[initialCapacity];
+        mStops    = new long[initialCapacity];
+        mMaxStops = new long[initialCapacity];
+    }
+
+
+    public TimeRangedIndex( Collection<? extends T> items ) {
+        this( items.size() );
+        addAll( items );
+    }
+
+
+    @Override
+    public boolean add( T item ) {
+        if( mSize == mItems.length ) {
+            int cap = mSize * 2;
+            mItems    = Arrays.copyOf( mItems, cap );
+            mStarts   = Arrays.copyOf( mStarts, cap );
+            mStops    = Arrays.copyOf( mStops, cap );
+            mMaxStops = Arrays.copyOf( mMaxStops, cap );
+        }
+
+        long start = item.startMicros();
+        long stop  = item.stopMicros();
+        if( mSize > 0 && ( start < mStarts[mSize - 1] || start == mStarts[mSize - 1] && stop < mStops[mSize - 1] ) ) {
+            mSorted = false;
+        }
+
+        mItems[mSize]  = item;
+        mStarts[mSize] = start;
+        mStops[mSize]  = stop;
+        mSize++;
+        mBuilt = false;
+        mModCount++;
+        return true;
+    }
+
+
+    @Override
+    public boolean remove( Object item ) {
+        for( int i = 0; i < mSize; i++ ) {
+            if( item == null ? mItems[i] == null : item.equals( mItems[i] ) ) {
+                removeAt( i );
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    @Override
+    public void clear() {
+        Arrays.fill( mItems, 0, mSize, null );
+        mSize   = 0;
+        mSorted = true;
+        mBuilt  = true;
+        mModCount++;
+    }
+
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return item at position {@code index} in start-stop order.
+     */
+    @SuppressWarnings( "unchecked" )
+    public T get( int index ) {
+        if( index < 0 || index >= mSize ) {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + mSize );
+        }
+        ensureBuilt();
+        return (T)mItems[index];
+    }
+
+    /**
+     * Iterates over items in start-stop order.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        ensureBuilt();
+        return new Iterator<T>() {
+            private int mIterMod = mModCount;
+            private int mPos = 0;
+            private int mPrev = -1;
+
+            @Override
+            public boolean hasNext() {
+                return mPos < mSize;
+            }
+
+            @Override
+            @SuppressWarnings( "unchecked" )
+            public T next() {
+                if( mIterMod != mModCount ) {
+                    throw new ConcurrentModificationException();
+                }
+                if( mPos >= mSize ) {
+                    throw new NoSuchElementException();
+                }
+                mPrev = mPos;
+                return (T)mItems[mPos++];
+            }
+
+            @Override
+            public void remove() {
+                if( mPrev < 0 ) {
+                    throw new IllegalStateException();
+                }
+                if( mIterMod != mModCount ) {
+                    throw new ConcurrentModificationException();
+                }
+                removeAt( mPrev );
+                ensureBuilt();
+                mPos = mPrev;
+                mPrev = -1;
+                mIterMod = mModCount;
+            }
+        };
+    }
+
+    /**
+     * Passes every item containing {@code timeMicro} to {@code visitor}, in start order.
+     *
+     * @return true if all items were visited, false if visitor stopped early.
+     */
+    public boolean stab( long timeMicro, Visitor<? super T> visitor ) {
+        long stop = timeMicro == Long.MAX_VALUE ? timeMicro : timeMicro + 1;
+        return intersect( timeMicro, stop, visitor );
+    }
+
+
+    public List<T> stab( long timeMicro ) {
+        ListVisitor<T> list = new ListVisitor<T>();
+        stab( timeMicro, list );
+        return list.mList;
+    }
+
+    /**
+     * Passes every item that intersects [startMicros, stopMicros) to {@code visitor}, in start order.
+     *
+     * @return true if all items were visited, false if visitor stopped early.
+     */
+    public boolean intersect( long startMicros, long stopMicros, Visitor<? super T> visitor ) {
+        if( stopMicros <= startMicros ) {
+            return true;
+        }
+        ensureBuilt();
+        return query( 0, mSize, startMicros, stopMicros, visitor );
+    }
+
+
+    public List<T> intersect( long startMicros, long stopMicros ) {
+        ListVisitor<T> list = new ListVisitor<T>();
+        intersect( startMicros, stopMicros, list );
+        return list.mList;
+    }
+
+    /**
+     * @return number of items that intersect [startMicros, stopMicros).
+     */
+    public int countIntersecting( long startMicros, long stopMicros ) {
+        CountVisitor count = new CountVisitor();
+        intersect( startMicros, stopMicros, count );
+        return count.mCount;
+    }
+
+
+
+    @SuppressWarnings( "unchecked" )
+    private boolean query( int lo, int hi, long a, long b, Visitor<? super T> visitor ) {
+        while( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if( mMaxStops[mid] < a ) {
+                return true;
+            }
+            if( !query( lo, mid, a, b, visitor ) ) {
+                return false;
+            }
+
+            long start = mStarts[mid];
+            if( start >= b ) {
+                return true;
+            }
+
+            long stop = mStops[mid];
+            if( ( stop > a || stop == start && start >= a ) && !visitor.visit( (T)mItems[mid] ) ) {
+                return false;
+            }
+            lo = mid + 1;
+        }
+        return true;
+    }
+
+
+    private void removeAt( int index ) {
+        int len = mSize - index - 1;
+        System.arraycopy( mItems, index + 1, mItems, index, len );
+        System.arraycopy( mStarts, index + 1, mStarts, index, len );
+        System.arraycopy( mStops, index + 1, mStops, index, len );
+        mItems[--mSize] = null;
+        mBuilt = false;
+        mModCount++;
+    }
+
+
+    private void ensureBuilt() {
+        if( mBuilt ) {
+            return;
+        }
+
+        if( !mSorted ) {
+            Arrays.sort( mItems, 0, mSize, TimeRanged.START_STOP_TIME_ORDER );
+            for( int i = 0; i < mSize; i++ ) {
+                TimeRanged item = mItems[i];
+                mStarts[i] = item.startMicros();
+                mStops[i]  = item.stopMicros();
+            }
+            mSorted = true;
+        }
+
+        buildBounds( 0, mSize );
+        mBuilt = true;
+    }
+
+    /**
+     * Stores greatest stop time of [lo, hi) at the midpoint of that range.
+     *
+     * @return greatest stop time in range, or Long.MIN_VALUE if empty.
+     */
+    private long buildBounds( int lo, int hi ) {
+        if( lo >= hi ) {
+            return Long.MIN_VALUE;
+        }
+        int mid  = ( lo + hi ) >>> 1;
+        long max = Math.max( mStops[mid], Math.max( buildBounds( lo, mid ), buildBounds( mid + 1, hi ) ) );
+        mMaxStops[mid] = max;
+        return max;
+    }
+
+
+    public interface Visitor<T> {
+        /**
+         * @return true to continue visiting, false to stop.
+         */
+        boolean visit( T item );
+    }
+
+
+    private static final class ListVisitor<T> implements Visitor<T> {
+        final List<T> mList = new ArrayList<T>();
+
+        @Override
+        public boolean visit( T item ) {
+            mList.add( item );
+            return true;
+        }
+    }
+
+
+    private static final class CountVisitor implements Visitor<Object> {
+        int mCount = 0;
+
+        @Override
+        public boolean visit( Object item ) {
+            mCount++;
+            return true;
+        }
+    }
+
+}
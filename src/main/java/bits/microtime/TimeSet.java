@@ -21,10 +21,90 @@ public class TimeSet extends AbstractSet<TimeBlock> {
     private int  mSize     = 0;
     private int  mModCount = 0;
 
+    private ChangeListener[] mListeners = null;
+
+    private long mCoalesceGap = 0;
+    private int  mMaxBlocks   = Integer.MAX_VALUE;
+
     
     public TimeSet() {}
-    
-    
+
+    /**
+     * Equivalent to {@code fromArrays( starts, stops, 0, starts.length )}.
+     */
+    public static TimeSet fromArrays( long[] starts, long[] stops ) {
+        return fromArrays( starts, stops, 0, starts.length );
+    }
+
+    /**
+     * Creates a TimeSet containing the blocks [starts[i], stops[i]) for i in [off, off + len).
+     * Overlapping and touching blocks are merged, and empty blocks are ignored.
+     * If the blocks are sorted by start time, the set is built in O(n). Otherwise,
+     * the times are sorted first in O(n log n).
+     */
+    public static TimeSet fromArrays( long[] starts, long[] stops, int off, int len ) {
+        RangeBuffer buf = new RangeBuffer( len );
+        long prevStart = Long.MIN_VALUE;
+
+        for( int i = off; i < off + len; i++ ) {
+            long start = starts[i];
+            long stop  = stops[i];
+            if( stop <= start ) {
+                continue;
+            }
+            if( start < prevStart ) {
+                buf = mergeUnsorted( starts, stops, off, len );
+                break;
+            }
+            buf.add( start, stop );
+            prevStart = start;
+        }
+
+        TimeSet ret = new TimeSet();
+        ret.setBlocks( buf.mData, buf.mSize );
+        return ret;
+    }
+
+    /**
+     * Creates a TimeSet containing all blocks in {@code blocks}.
+     *
+     * @see #fromArrays(long[], long[], int, int)
+     */
+    public static TimeSet fromBlocks( Iterable<? extends TimeRanged> blocks ) {
+        int cap = blocks instanceof Collection ? ((Collection<?>)blocks).size() : 16;
+        return fromBlocks( blocks.iterator(), cap );
+    }
+
+    /**
+     * Creates a TimeSet containing all blocks provided by {@code blocks}.
+     *
+     * @see #fromArrays(long[], long[], int, int)
+     */
+    public static TimeSet fromBlocks( Iterator<? extends TimeRanged> blocks ) {
+        return fromBlocks( blocks, 16 );
+    }
+
+
+    private static TimeSet fromBlocks( Iterator<? extends TimeRanged> blocks, int cap ) {
+        long[] starts = new long[Math.max( 1, cap )];
+        long[] stops  = new long[starts.length];
+        int n = 0;
+
+        while( blocks.hasNext() ) {
+            TimeRanged tr = blocks.next();
+            if( n == starts.length ) {
+                starts = Arrays.copyOf( starts, n * 2 );
+                stops  = Arrays.copyOf( stops, n * 2 );
+            }
+            starts[n] = tr.startMicros();
+            stops[n]  = tr.stopMicros();
+            n++;
+        }
+
+        return fromArrays( starts, stops, 0, n );
+    }
+
+
     @Override
     public boolean add( TimeBlock tb ) {
         if( tb == null ) {
@@ -35,6 +115,47 @@ public class TimeSet extends AbstractSet<TimeBlock> {
 
 
     public boolean add( long startMicros, long stopMicros ) {
+        if( !addNotify( startMicros, stopMicros ) ) {
+            return false;
+        }
+
+        if( mCoalesceGap > 0 ) {
+            // Close short gaps on either side of the block now containing startMicros.
+            Node node = lastStartBefore( startMicros, true );
+            Node prev = prevNode( node );
+            if( prev != null && node.mStart - prev.mStop < mCoalesceGap ) {
+                closeGap( node );
+                node = lastStartBefore( startMicros, true );
+            }
+            Node next = nextNode( node );
+            if( next != null && next.mStart - node.mStop < mCoalesceGap ) {
+                closeGap( next );
+            }
+        }
+
+        if( mSize > mMaxBlocks ) {
+            enforceMaxBlocks();
+        }
+        return true;
+    }
+
+
+    private boolean addNotify( long startMicros, long stopMicros ) {
+        if( mListeners == null || stopMicros <= startMicros ) {
+            return addRange( startMicros, stopMicros );
+        }
+
+        RangeBuffer added = new RangeBuffer( 1 );
+        subtractFrom( startMicros, stopMicros, added );
+        if( !addRange( startMicros, stopMicros ) ) {
+            return false;
+        }
+        fireChanges( added, null );
+        return true;
+    }
+
+
+    private boolean addRange( long startMicros, long stopMicros ) {
         if( stopMicros <= startMicros ) {
             return false;
         }
@@ -141,6 +262,32 @@ public class TimeSet extends AbstractSet<TimeBlock> {
 
 
     public boolean remove( long startMicros, long stopMicros ) {
+        if( !removeNotify( startMicros, stopMicros ) ) {
+            return false;
+        }
+        if( mSize > mMaxBlocks ) {
+            enforceMaxBlocks();
+        }
+        return true;
+    }
+
+
+    private boolean removeNotify( long startMicros, long stopMicros ) {
+        if( mListeners == null || stopMicros <= startMicros ) {
+            return removeRange( startMicros, stopMicros );
+        }
+
+        RangeBuffer removed = new RangeBuffer( 1 );
+        intersect( startMicros, stopMicros, removed );
+        if( !removeRange( startMicros, stopMicros ) ) {
+            return false;
+        }
+        fireChanges( null, removed );
+        return true;
+    }
+
+
+    private boolean removeRange( long startMicros, long stopMicros ) {
         if( stopMicros <= startMicros ) {
             return false;
         }
@@ -241,8 +388,21 @@ public class TimeSet extends AbstractSet<TimeBlock> {
     }
 
 
+    @Override
+    public boolean addAll( Collection<? extends TimeBlock> c ) {
+        if( c instanceof TimeSet ) {
+            return union( (TimeSet)c );
+        }
+        return super.addAll( c );
+    }
+
+
     @Override
     public boolean removeAll( Collection<?> c ) {
+        if( c instanceof TimeSet ) {
+            return difference( (TimeSet)c );
+        }
+
         boolean ret = false;
         for( Object obj : c ) {
             ret |= remove( obj );
@@ -254,9 +414,19 @@ public class TimeSet extends AbstractSet<TimeBlock> {
 
     @Override
     public void clear() {
+        RangeBuffer removed = null;
+        if( mListeners != null && mRoot != null ) {
+            removed = new RangeBuffer( mSize );
+            visit( removed );
+        }
+
         mRoot = null;
         mSize = 0;
         mModCount++;
+
+        if( removed != null ) {
+            fireChanges( null, removed );
+        }
     }
 
 
@@ -335,6 +505,63 @@ public class TimeSet extends AbstractSet<TimeBlock> {
         return null;
     }
 
+    /**
+     * @return position of the block containing {@code timeMicro} in iteration order, or -1 if none. O(log n).
+     */
+    public int blockIndexOf( long timeMicro ) {
+        Node node  = mRoot;
+        int  index = 0;
+
+        while( node != null ) {
+            if( timeMicro < node.mStart ) {
+                node = node.mLeft;
+            } else if( timeMicro >= node.mStop ) {
+                index += node.mLeft == null ? 1 : node.mLeft.mCount + 1;
+                node = node.mRight;
+            } else {
+                return index + ( node.mLeft == null ? 0 : node.mLeft.mCount );
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Tests many times at once. Probes are merged against the blocks in order,
+     * which is O(n + m) rather than O(m log n) for m separate calls to {@link #contains(long)}.
+     *
+     * @param sortedTimes  Times to test, in non-decreasing order.
+     * @param out          Receives {@code contains(sortedTimes[i])} at {@code out[i]}.
+     * @return number of times contained in this set.
+     * @throws IllegalArgumentException if sortedTimes is not sorted.
+     */
+    public int containsAll( long[] sortedTimes, boolean[] out ) {
+        return probeSorted( sortedTimes, out, null, null );
+    }
+
+    /**
+     * Bitmap variant of {@link #containsAll(long[], boolean[])}. Bit {@code i} of
+     * {@code out} is set iff this set contains {@code sortedTimes[i]}.
+     *
+     * @return number of times contained in this set.
+     */
+    public int containsAll( long[] sortedTimes, BitSet out ) {
+        return probeSorted( sortedTimes, null, out, null );
+    }
+
+    /**
+     * Batch variant of {@link #blockIndexOf(long)}. Writes the position of the block containing
+     * each time to {@code out}, or -1 if none, merging probes against the blocks in order.
+     *
+     * @param sortedTimes  Times to look up, in non-decreasing order.
+     * @param out          Receives block indices.
+     * @return number of times contained in this set.
+     * @throws IllegalArgumentException if sortedTimes is not sorted.
+     */
+    public int blockIndexOf( long[] sortedTimes, int[] out ) {
+        return probeSorted( sortedTimes, null, null, out );
+    }
+
     /**
      * Returns the smallest TimeBlock that is a superset of this TimeSet.
      * 
@@ -348,13 +575,288 @@ public class TimeSet extends AbstractSet<TimeBlock> {
         }
         return new TimeBlock( first.mStart, last.mStop );
     }
-    
+
+    /**
+     * @return total microseconds covered by this set. O(1).
+     */
+    public long coveredMicros() {
+        return mRoot == null ? 0 : mRoot.mSpan;
+    }
+
+    /**
+     * @return microseconds of [startMicros, stopMicros) covered by this set. O(log n).
+     */
+    public long coveredMicros( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return 0;
+        }
+        return coveredBefore( stopMicros ) - coveredBefore( startMicros );
+    }
+
+    /**
+     * Divides [startMicros, stopMicros) into {@code buckets} buckets of equal width and
+     * writes the fraction of each bucket covered by this set, in [0, 1], to {@code out}.
+     * Coverage at each bucket edge is found from subtree spans, so the cost is
+     * O(buckets log n) regardless of how many blocks fall in each bucket. Intended for
+     * drawing coverage at display resolution.
+     *
+     * @param out  Receives {@code buckets} values starting at {@code off}.
+     */
+    public void coverage( long startMicros, long stopMicros, int buckets, float[] out, int off ) {
+        if( buckets <= 0 ) {
+            return;
+        }
+        if( stopMicros <= startMicros ) {
+            Arrays.fill( out, off, off + buckets, 0f );
+            return;
+        }
+
+        // The window may be wider than Long.MAX_VALUE, so spans, widths and covered
+        // amounts are treated as unsigned. Wrapping arithmetic keeps them exact.
+        final long span = stopMicros - startMicros;
+        long step = ( ( span >>> 1 ) / buckets ) << 1;
+        long rem  = span - step * buckets;
+        if( rem >= buckets ) {
+            step++;
+            rem -= buckets;
+        }
+
+        long edge = startMicros;
+        long prev = coveredBefore( edge );
+
+        for( int i = 0; i < buckets; i++ ) {
+            long nextEdge = startMicros + step * ( i + 1 ) + rem * ( i + 1 ) / buckets;
+            long next     = coveredBefore( nextEdge );
+            long width    = nextEdge - edge;
+            out[off + i]  = width == 0 ? 0f : (float)( unsignedToDouble( next - prev ) / unsignedToDouble( width ) );
+            edge = nextEdge;
+            prev = next;
+        }
+    }
+
+    /**
+     * @return number of blocks in this set that intersect [startMicros, stopMicros). O(log n).
+     */
+    public int countIn( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return 0;
+        }
+        return countStartsBefore( stopMicros ) - countStopsAtOrBefore( startMicros );
+    }
+
+    /**
+     * Finds the first uncovered range at or after {@code t}. If {@code t} is not
+     * in this set, that is the range from {@code t} to the start of the following block.
+     * Otherwise, it is the gap that follows the block containing {@code t}. O(log n).
+     *
+     * @return first gap at or after t. The stop time is Long.MAX_VALUE if no block follows the gap.
+     */
+    public TimeBlock nextGapAfter( long t ) {
+        Node node = firstStopAfter( t );
+        if( node == null ) {
+            return new TimeBlock( t, Long.MAX_VALUE );
+        }
+        if( node.mStart > t ) {
+            return new TimeBlock( t, node.mStart );
+        }
+
+        Node next = nextNode( node );
+        return new TimeBlock( node.mStop, next == null ? Long.MAX_VALUE : next.mStart );
+    }
+
+    /**
+     * Finds the first uncovered range at or after {@code t} that is at least
+     * {@code minMicros} long. If {@code t} is not in this set, the gap containing
+     * {@code t} is considered to begin at {@code t}. O(log n).
+     *
+     * @return first sufficiently large gap. The stop time is Long.MAX_VALUE if no block follows the gap.
+     */
+    public TimeBlock firstGapOfAtLeast( long t, long minMicros ) {
+        Node node = firstStopAfter( t );
+        if( node == null ) {
+            return new TimeBlock( t, Long.MAX_VALUE );
+        }
+        if( node.mStart > t && node.mStart - t >= minMicros ) {
+            return new TimeBlock( t, node.mStart );
+        }
+
+        // Search gaps between blocks, beginning at or after t.
+        Node gapEnd = findGap( mRoot, t, minMicros );
+        if( gapEnd != null ) {
+            return new TimeBlock( prevNode( gapEnd ).mStop, gapEnd.mStart );
+        }
+
+        return new TimeBlock( Math.max( t, mRoot.mMaxStop ), Long.MAX_VALUE );
+    }
+
+    /**
+     * Finds the largest uncovered range within [startMicros, stopMicros). If several
+     * gaps have the same length, the earliest is returned. O(log n).
+     *
+     * @return largest gap, clipped to the query range, or null if range is completely covered.
+     */
+    public TimeBlock largestGapIn( long startMicros, long stopMicros ) {
+        if( stopMicros <= startMicros ) {
+            return null;
+        }
+
+        Node first = firstOverlap( startMicros, stopMicros );
+        if( first == null ) {
+            return new TimeBlock( startMicros, stopMicros );
+        }
+        Node last = lastOverlap( startMicros, stopMicros );
+
+        long bestStart = startMicros;
+        long bestStop  = Math.max( startMicros, first.mStart );
+
+        if( first != last ) {
+            GapQuery q = new GapQuery( first, last );
+            q.search( mRoot, Long.MIN_VALUE );
+            if( q.mGap > bestStop - bestStart ) {
+                Node gapEnd = q.result();
+                bestStart = prevNode( gapEnd ).mStop;
+                bestStop  = gapEnd.mStart;
+            }
+        }
+
+        if( stopMicros - last.mStop > bestStop - bestStart ) {
+            bestStart = last.mStop;
+            bestStop  = stopMicros;
+        }
+
+        return bestStop > bestStart ? new TimeBlock( bestStart, bestStop ) : null;
+    }
+
+    /**
+     * @return smallest gap between two blocks in this set, or null if set has fewer than two blocks.
+     *         Ties go to the earliest gap.
+     */
+    public TimeBlock smallestGap() {
+        if( mSize < 2 ) {
+            return null;
+        }
+        Node node = minGapNode();
+        return new TimeBlock( prevNode( node ).mStop, node.mStart );
+    }
+
+
+    /**
+     * @return first block in set, or null if empty.
+     */
+    public TimeBlock first() {
+        return toBlock( firstNode() );
+    }
+
+    /**
+     * @return last block in set, or null if empty.
+     */
+    public TimeBlock last() {
+        return toBlock( lastNode() );
+    }
+
+    /**
+     * @return the last block that starts at or before t, or null if none.
+     */
+    public TimeBlock floor( long t ) {
+        return toBlock( lastStartBefore( t, true ) );
+    }
+
+    /**
+     * @return the last block that starts before t, or null if none.
+     */
+    public TimeBlock lower( long t ) {
+        return toBlock( lastStartBefore( t, false ) );
+    }
+
+    /**
+     * @return the first block that starts at or after t, or null if none.
+     */
+    public TimeBlock ceiling( long t ) {
+        return toBlock( firstStartAfter( t, true ) );
+    }
+
+    /**
+     * @return the first block that starts after t, or null if none.
+     */
+    public TimeBlock higher( long t ) {
+        return toBlock( firstStartAfter( t, false ) );
+    }
+
 
     @Override
     public Iterator<TimeBlock> iterator() {
         return new TimeIterator();
     }
 
+    /**
+     * Returns a Splitter over all blocks in this set. Splitters may be recursively
+     * divided into halves of equal size in O(log n), and then traversed independently,
+     * allowing the set to be processed in parallel, e.g., by ForkJoin tasks.
+     * The set must not be modified while Splitters are in use.
+     */
+    public Splitter splitter() {
+        return new Splitter( 0, mSize, null );
+    }
+
+    /**
+     * @return new Cursor for repeated point queries at nearby times.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * @return iterator over blocks in reverse order.
+     */
+    public Iterator<TimeBlock> descendingIterator() {
+        return new TimeIterator( Long.MIN_VALUE, Long.MAX_VALUE, true );
+    }
+
+    /**
+     * Returns an iterator over the intersection of this set with [startMicros, stopMicros).
+     * The iterator is positioned in O(log n), and blocks are clipped to the range.
+     */
+    public Iterator<TimeBlock> iterator( long startMicros, long stopMicros ) {
+        return new TimeIterator( startMicros, stopMicros, false );
+    }
+
+    /**
+     * Like {@link #iterator(long, long)}, but in reverse order.
+     */
+    public Iterator<TimeBlock> descendingIterator( long startMicros, long stopMicros ) {
+        return new TimeIterator( startMicros, stopMicros, true );
+    }
+
+    /**
+     * Returns a live view of the portion of this set within [startMicros, stopMicros).
+     * Blocks in the view are clipped to the range. Changes to this set are visible in
+     * the view, and changes to the view are written through to this set. Adding blocks
+     * outside the range to the view throws an IllegalArgumentException.
+     * {@code size()} of the view is O(log n).
+     */
+    public Set<TimeBlock> subSet( long startMicros, long stopMicros ) {
+        if( stopMicros < startMicros ) {
+            throw new IllegalArgumentException( "stopMicros < startMicros" );
+        }
+        return new SubSet( startMicros, stopMicros );
+    }
+
+    /**
+     * @return live view of the portion of this set before {@code stopMicros}.
+     * @see #subSet(long, long)
+     */
+    public Set<TimeBlock> headSet( long stopMicros ) {
+        return new SubSet( Long.MIN_VALUE, stopMicros );
+    }
+
+    /**
+     * @return live view of the portion of this set at or after {@code startMicros}.
+     * @see #subSet(long, long)
+     */
+    public Set<TimeBlock> tailSet( long startMicros ) {
+        return new SubSet( startMicros, Long.MAX_VALUE );
+    }
+
 
     public List<TimeBlock> intersect( TimeBlock range ) {
         return intersect( range.startMicros(), range.stopMicros() );
@@ -447,42 +949,834 @@ public class TimeSet extends AbstractSet<TimeBlock> {
         return ret;
     }
 
-
-    @Override
-    public TimeBlock[] toArray() {
-        TimeBlock[] ret = new TimeBlock[mSize];
-        Node node = firstNode();
-
-        for( int i = 0; i < ret.length; i++ ) {
-            ret[i] = new TimeBlock( node.mStart, node.mStop );
-            node = nextNode( node );
+    /**
+     * Passes every block in this set, in order, to {@code visitor}.
+     * The set must not be modified during the visit.
+     *
+     * @return true if all blocks were visited, false if visitor stopped early.
+     */
+    public boolean visit( RangeVisitor visitor ) {
+        for( Node node = firstNode(); node != null; node = nextNode( node ) ) {
+            if( !visitor.visit( node.mStart, node.mStop ) ) {
+                return false;
+            }
         }
-
-        return ret;
+        return true;
     }
 
-    @Override
-    @SuppressWarnings( "unchecked" )
-    public <T> T[] toArray( T[] a ) {
+    /**
+     * Allocation-free version of {@link #intersect(long, long)}. Passes each
+     * non-empty intersection of this set with [startMicros, stopMicros) to {@code visitor}.
+     * Nothing is visited if the range is empty. The set must not be modified during the visit.
+     *
+     * @return true if all blocks were visited, false if visitor stopped early.
+     */
+    public boolean intersect( long startMicros, long stopMicros, RangeVisitor visitor ) {
+        if( stopMicros <= startMicros ) {
+            return true;
+        }
+        Node node = firstOverlap( startMicros, stopMicros );
+
+        while( node != null && node.mStart < stopMicros ) {
+            if( !visitor.visit( Math.max( node.mStart, startMicros ), Math.min( node.mStop, stopMicros ) ) ) {
+                return false;
+            }
+            node = nextNode( node );
+        }
+
+        return true;
+    }
+
+    /**
+     * Allocation-free version of {@link #intersect(long, long)}. Writes intersecting
+     * blocks into {@code out} as start/stop pairs, beginning at {@code off}.
+     * If {@code out} is too small, as many blocks as fit are written.
+     *
+     * @return total number of intersecting blocks, which may exceed the number written.
+     *         Zero if the range is empty.
+     */
+    public int intersect( long startMicros, long stopMicros, long[] out, int off ) {
+        if( stopMicros <= startMicros ) {
+            return 0;
+        }
+        final int cap = ( out.length - off ) / 2;
+        int count = 0;
+        Node node = firstOverlap( startMicros, stopMicros );
+
+        while( node != null && node.mStart < stopMicros ) {
+            if( count < cap ) {
+                out[off++] = Math.max( node.mStart, startMicros );
+                out[off++] = Math.min( node.mStop, stopMicros );
+            }
+            count++;
+            node = nextNode( node );
+        }
+
+        return count;
+    }
+
+    /**
+     * Allocation-free version of {@link #subtractFrom(long, long)}. Passes each
+     * range of [startMicros, stopMicros) not covered by this set to {@code visitor}.
+     * The set must not be modified during the visit.
+     *
+     * @return true if all ranges were visited, false if visitor stopped early.
+     */
+    public boolean subtractFrom( long startMicros, long stopMicros, RangeVisitor visitor ) {
+        Node node = firstOverlap( startMicros, stopMicros );
+        long lastStop = startMicros;
+
+        while( node != null && node.mStart < stopMicros ) {
+            if( node.mStart > lastStop && !visitor.visit( lastStop, node.mStart ) ) {
+                return false;
+            }
+            lastStop = node.mStop;
+            node = nextNode( node );
+        }
+
+        return lastStop >= stopMicros || visitor.visit( lastStop, stopMicros );
+    }
+
+    /**
+     * Allocation-free version of {@link #subtractFrom(long, long)}. Writes uncovered
+     * ranges into {@code out} as start/stop pairs, beginning at {@code off}.
+     * If {@code out} is too small, as many ranges as fit are written.
+     *
+     * @return total number of uncovered ranges, which may exceed the number written.
+     */
+    public int subtractFrom( long startMicros, long stopMicros, long[] out, int off ) {
+        final int cap = ( out.length - off ) / 2;
+        int count = 0;
+        Node node = firstOverlap( startMicros, stopMicros );
+        long lastStop = startMicros;
+
+        while( node != null && node.mStart < stopMicros ) {
+            if( node.mStart > lastStop ) {
+                if( count < cap ) {
+                    out[off++] = lastStop;
+                    out[off++] = node.mStart;
+                }
+                count++;
+            }
+            lastStop = node.mStop;
+            node = nextNode( node );
+        }
+
+        if( lastStop < stopMicros ) {
+            if( count < cap ) {
+                out[off]     = lastStop;
+                out[off + 1] = stopMicros;
+            }
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Writes all blocks into {@code out} as start/stop pairs, beginning at {@code off}.
+     * If {@code out} is too small, as many blocks as fit are written.
+     *
+     * @return number of blocks in set, which may exceed the number written.
+     */
+    public int toArray( long[] out, int off ) {
+        final int cap = ( out.length - off ) / 2;
+        Node node = firstNode();
+
+        for( int i = 0; i < cap && node != null; i++ ) {
+            out[off++] = node.mStart;
+            out[off++] = node.mStop;
+            node = nextNode( node );
+        }
+
+        return mSize;
+    }
+
+    /**
+     * Adds all time in {@code other} to this set. Performs a single merge pass
+     * over both sets and rebuilds the tree in O(m + n).
+     *
+     * @return true iff this set changed
+     */
+    public boolean union( TimeSet other ) {
+        return combineInPlace( other, OP_UNION );
+    }
+
+    /**
+     * Removes all time from this set that is not in {@code other}. O(m + n).
+     *
+     * @return true iff this set changed
+     */
+    public boolean intersection( TimeSet other ) {
+        return combineInPlace( other, OP_INTERSECTION );
+    }
+
+    /**
+     * Removes all time in {@code other} from this set. O(m + n).
+     *
+     * @return true iff this set changed
+     */
+    public boolean difference( TimeSet other ) {
+        return combineInPlace( other, OP_DIFFERENCE );
+    }
+
+    /**
+     * Replaces this set with the time contained in exactly one of this set and {@code other}. O(m + n).
+     *
+     * @return true iff this set changed
+     */
+    public boolean symmetricDifference( TimeSet other ) {
+        return combineInPlace( other, OP_SYMMETRIC_DIFFERENCE );
+    }
+
+    /**
+     * @return new TimeSet containing all time in either {@code a} or {@code b}.
+     */
+    public static TimeSet union( TimeSet a, TimeSet b ) {
+        return combine( a, b, OP_UNION );
+    }
+
+    /**
+     * @return new TimeSet containing all time in both {@code a} and {@code b}.
+     */
+    public static TimeSet intersection( TimeSet a, TimeSet b ) {
+        return combine( a, b, OP_INTERSECTION );
+    }
+
+    /**
+     * @return new TimeSet containing all time in {@code a} that is not in {@code b}.
+     */
+    public static TimeSet difference( TimeSet a, TimeSet b ) {
+        return combine( a, b, OP_DIFFERENCE );
+    }
+
+    /**
+     * @return new TimeSet containing all time in exactly one of {@code a} and {@code b}.
+     */
+    public static TimeSet symmetricDifference( TimeSet a, TimeSet b ) {
+        return combine( a, b, OP_SYMMETRIC_DIFFERENCE );
+    }
+
+    /**
+     * Computes the changes that would turn this set into {@code other}, walking both
+     * sets once in order. Ranges covered by {@code other} but not this set are passed to
+     * {@link DiffVisitor#added}, and ranges covered by this set but not {@code other} are
+     * passed to {@link DiffVisitor#removed}. Ranges are maximal and arrive in time order.
+     * O(m + n) and allocation-free. Neither set may be modified during the diff.
+     *
+     * @return true if all ranges were visited, false if visitor stopped early.
+     */
+    public boolean diff( TimeSet other, DiffVisitor visitor ) {
+        if( other == this ) {
+            return true;
+        }
+
+        Node na = firstNode();
+        Node nb = other.firstNode();
+        // Unvisited portions of current blocks. Empty when start == stop.
+        long aStart = 0;
+        long aStop  = 0;
+        long bStart = 0;
+        long bStop  = 0;
+
+        while( true ) {
+            if( aStart == aStop && na != null ) {
+                aStart = na.mStart;
+                aStop  = na.mStop;
+                na = nextNode( na );
+            }
+            if( bStart == bStop && nb != null ) {
+                bStart = nb.mStart;
+                bStop  = nb.mStop;
+                nb = other.nextNode( nb );
+            }
+
+            boolean hasA = aStart < aStop;
+            boolean hasB = bStart < bStop;
+
+            if( !hasA && !hasB ) {
+                return true;
+            }
+
+            if( !hasB || hasA && aStart < bStart ) {
+                long end = hasB ? Math.min( aStop, bStart ) : aStop;
+                if( !visitor.removed( aStart, end ) ) {
+                    return false;
+                }
+                aStart = end;
+            } else if( !hasA || bStart < aStart ) {
+                long end = hasA ? Math.min( bStop, aStart ) : bStop;
+                if( !visitor.added( bStart, end ) ) {
+                    return false;
+                }
+                bStart = end;
+            } else {
+                long end = Math.min( aStop, bStop );
+                aStart = end;
+                bStart = end;
+            }
+        }
+    }
+
+    /**
+     * Moves all time at or after {@code t} into a new set, leaving this set with
+     * all time before {@code t}. A block containing {@code t} is cut in two.
+     * O(log n), regardless of how many blocks are moved.
+     *
+     * @return new set containing time in this set at or after {@code t}.
+     */
+    public TimeSet splitAt( long t ) {
+        RangeBuffer removed = null;
+        if( mListeners != null ) {
+            removed = new RangeBuffer( 1 );
+            intersect( t, Long.MAX_VALUE, removed );
+        }
+
+        Split split = splitTree( t );
+        setRoot( split.mLeft );
+        TimeSet ret = new TimeSet();
+        ret.setRoot( split.mRight );
+
+        if( removed != null ) {
+            fireChanges( null, removed );
+        }
+        return ret;
+    }
+
+    /**
+     * Removes all time before {@code t}. O(log n), regardless of how many blocks are removed.
+     *
+     * @return true iff this set changed
+     */
+    public boolean retainAfter( long t ) {
+        if( mRoot == null || mRoot.mMinStart >= t ) {
+            return false;
+        }
+
+        RangeBuffer removed = null;
+        if( mListeners != null ) {
+            removed = new RangeBuffer( 1 );
+            intersect( Long.MIN_VALUE, t, removed );
+        }
+
+        setRoot( splitTree( t ).mRight );
+
+        if( removed != null ) {
+            fireChanges( null, removed );
+        }
+        return true;
+    }
+
+    /**
+     * Removes all time at or after {@code t}. O(log n), regardless of how many blocks are removed.
+     *
+     * @return true iff this set changed
+     */
+    public boolean retainBefore( long t ) {
+        if( mRoot == null || mRoot.mMaxStop <= t ) {
+            return false;
+        }
+
+        RangeBuffer removed = null;
+        if( mListeners != null ) {
+            removed = new RangeBuffer( 1 );
+            intersect( t, Long.MAX_VALUE, removed );
+        }
+
+        setRoot( splitTree( t ).mLeft );
+
+        if( removed != null ) {
+            fireChanges( null, removed );
+        }
+        return true;
+    }
+
+    /**
+     * Moves all blocks from {@code other} into this set. Every block in {@code other}
+     * must start at or after the stop of every block in this set. {@code other} is
+     * left empty, and its listeners are notified of the removal. If this set has a
+     * coalescing tolerance, a short gap at the seam is closed as {@link #add(long, long)}
+     * would close it. O(log n).
+     *
+     * @return true iff this set changed
+     * @throws IllegalArgumentException if {@code other} contains time before the end of this set.
+     */
+    public boolean join( TimeSet other ) {
+        if( other.mRoot == null ) {
+            return false;
+        }
+        if( other == this || mRoot != null && other.mRoot.mMinStart < mRoot.mMaxStop ) {
+            throw new IllegalArgumentException( "Sets are not ordered and disjoint" );
+        }
+
+        RangeBuffer moved = null;
+        if( mListeners != null || other.mListeners != null ) {
+            moved = new RangeBuffer( other.mSize );
+            other.visit( moved );
+        }
+
+        Node seam = null;
+        if( mRoot == null ) {
+            setRoot( other.mRoot );
+        } else {
+            // Take boundary block from other to serve as join node, merging it
+            // with the last block of this set if they touch.
+            Node first = other.firstNode();
+            Node last  = lastNode();
+            other.removeNode( first );
+            Node mid;
+            if( first.mStart == last.mStop ) {
+                removeNode( last );
+                mid = new Node( last.mStart, first.mStop );
+            } else {
+                mid = new Node( first.mStart, first.mStop );
+                if( first.mStart - last.mStop < mCoalesceGap ) {
+                    seam = mid;
+                }
+            }
+
+            Node left  = mRoot;
+            Node right = other.mRoot;
+            joinTrees( left, blackHeight( left ), mid, right, blackHeight( right ) );
+            setRoot( mRoot );
+        }
+
+        other.setRoot( null );
+
+        if( moved != null && other.mListeners != null ) {
+            other.fireChanges( null, moved );
+        }
+        if( moved != null && mListeners != null ) {
+            fireChanges( moved, null );
+        }
+        if( seam != null ) {
+            closeGap( seam );
+        }
+        if( mSize > mMaxBlocks ) {
+            enforceMaxBlocks();
+        }
+        return true;
+    }
+
+
+    @Override
+    public TimeBlock[] toArray() {
+        TimeBlock[] ret = new TimeBlock[mSize];
+        Node node = firstNode();
+
+        for( int i = 0; i < ret.length; i++ ) {
+            ret[i] = new TimeBlock( node.mStart, node.mStop );
+            node = nextNode( node );
+        }
+
+        return ret;
+    }
+
+    @Override
+    @SuppressWarnings( "unchecked" )
+    public <T> T[] toArray( T[] a ) {
         Class<?> c = a.getClass().getComponentType();
         if( !c.isAssignableFrom( TimeBlock.class ) ) {
             throw new ArrayStoreException();
         }
 
-        if( a.length < mSize ) {
-            a = (T[]) Array.newInstance( a.getClass().getComponentType(), mSize );
-        } else if( a.length > mSize ) {
-            a[mSize] = null;
+        if( a.length < mSize ) {
+            a = (T[]) Array.newInstance( a.getClass().getComponentType(), mSize );
+        } else if( a.length > mSize ) {
+            a[mSize] = null;
+        }
+
+        Node node = firstNode();
+
+        for( int i = 0; i < mSize; i++ ) {
+            a[i] = (T) new TimeBlock( node.mStart, node.mStop );
+            node = nextNode( node );
+        }
+
+        return a;
+    }
+
+
+    /**
+     * Registers {@code listener} to receive the ranges added to and removed from
+     * this set by each subsequent modification.
+     */
+    public void addChangeListener( ChangeListener listener ) {
+        if( listener == null ) {
+            throw new NullPointerException();
+        }
+        if( mListeners == null ) {
+            mListeners = new ChangeListener[]{ listener };
+        } else {
+            ChangeListener[] arr = Arrays.copyOf( mListeners, mListeners.length + 1 );
+            arr[mListeners.length] = listener;
+            mListeners = arr;
+        }
+    }
+
+
+    public void removeChangeListener( ChangeListener listener ) {
+        if( mListeners == null ) {
+            return;
+        }
+        for( int i = 0; i < mListeners.length; i++ ) {
+            if( mListeners[i] == listener ) {
+                if( mListeners.length == 1 ) {
+                    mListeners = null;
+                } else {
+                    ChangeListener[] arr = new ChangeListener[mListeners.length - 1];
+                    System.arraycopy( mListeners, 0, arr, 0, i );
+                    System.arraycopy( mListeners, i + 1, arr, i, arr.length - i );
+                    mListeners = arr;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sets coalescing tolerance. When positive, {@link #add(long, long)} also closes
+     * any gap shorter than {@code gapMicros} on either side of the added block, and
+     * all existing gaps shorter than {@code gapMicros} are closed immediately. This
+     * keeps jittery input from leaving many tiny gaps between contiguous blocks.
+     * Other operations, such as {@link #union(TimeSet)}, do not coalesce.
+     *
+     * @param gapMicros Gaps shorter than this are closed. Zero disables coalescing.
+     */
+    public void setCoalesceGap( long gapMicros ) {
+        if( gapMicros < 0 ) {
+            throw new IllegalArgumentException( "gapMicros < 0" );
+        }
+        mCoalesceGap = gapMicros;
+        while( mRoot != null && mRoot.mMinGap < gapMicros ) {
+            closeGap( minGapNode() );
+        }
+    }
+
+
+    public long coalesceGap() {
+        return mCoalesceGap;
+    }
+
+    /**
+     * Bounds the number of blocks in this set. Whenever a modification leaves more than
+     * {@code maxBlocks} blocks, the smallest gaps are closed until the bound is met.
+     * Each closure is O(log n). Note that a removal that splits a block may be undone
+     * if it leaves the smallest gap in the set.
+     *
+     * @param maxBlocks Maximum number of blocks, or {@code Integer.MAX_VALUE} for no bound.
+     */
+    public void setMaxBlocks( int maxBlocks ) {
+        if( maxBlocks < 1 ) {
+            throw new IllegalArgumentException( "maxBlocks < 1" );
+        }
+        mMaxBlocks = maxBlocks;
+        if( mSize > maxBlocks ) {
+            enforceMaxBlocks();
+        }
+    }
+
+
+    public int maxBlocks() {
+        return mMaxBlocks;
+    }
+
+
+
+    /**
+     * @return microseconds covered by this set before time t.
+     */
+    private long coveredBefore( long t ) {
+        Node node = mRoot;
+        long sum  = 0;
+
+        while( node != null ) {
+            if( t <= node.mStart ) {
+                node = node.mLeft;
+            } else {
+                if( node.mLeft != null ) {
+                    sum += node.mLeft.mSpan;
+                }
+                if( t < node.mStop ) {
+                    return sum + ( t - node.mStart );
+                }
+                sum += node.mStop - node.mStart;
+                node = node.mRight;
+            }
+        }
+
+        return sum;
+    }
+
+    /**
+     * @return number of blocks that start before time t.
+     */
+    private int countStartsBefore( long t ) {
+        Node node = mRoot;
+        int count = 0;
+
+        while( node != null ) {
+            if( t <= node.mStart ) {
+                node = node.mLeft;
+            } else {
+                count += node.mLeft == null ? 1 : node.mLeft.mCount + 1;
+                node = node.mRight;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return number of blocks that stop at or before time t.
+     */
+    private int countStopsAtOrBefore( long t ) {
+        Node node = mRoot;
+        int count = 0;
+
+        while( node != null ) {
+            if( t < node.mStop ) {
+                node = node.mLeft;
+            } else {
+                count += node.mLeft == null ? 1 : node.mLeft.mCount + 1;
+                node = node.mRight;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * @return first node with stop > t, or null if none.
+     */
+    private Node firstStopAfter( long t ) {
+        Node node = mRoot;
+        Node ret  = null;
+
+        while( node != null ) {
+            if( node.mStop > t ) {
+                ret  = node;
+                node = node.mLeft;
+            } else {
+                node = node.mRight;
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return last node with start before t (or equal to t, if inclusive), or null if none.
+     */
+    private Node lastStartBefore( long t, boolean inclusive ) {
+        Node node = mRoot;
+        Node ret  = null;
+
+        while( node != null ) {
+            if( node.mStart < t || inclusive && node.mStart == t ) {
+                ret  = node;
+                node = node.mRight;
+            } else {
+                node = node.mLeft;
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return first node with start after t (or equal to t, if inclusive), or null if none.
+     */
+    private Node firstStartAfter( long t, boolean inclusive ) {
+        Node node = mRoot;
+        Node ret  = null;
+
+        while( node != null ) {
+            if( node.mStart > t || inclusive && node.mStart == t ) {
+                ret  = node;
+                node = node.mLeft;
+            } else {
+                node = node.mRight;
+            }
+        }
+
+        return ret;
+    }
+
+
+    /**
+     * Merges sorted probe times against blocks in order, writing results to whichever outputs are non-null.
+     */
+    private int probeSorted( long[] times, boolean[] flags, BitSet bits, int[] indices ) {
+        final int len = times.length;
+        if( len == 0 ) {
+            return 0;
         }
 
-        Node node = firstNode();
+        Node node  = firstStopAfter( times[0] );
+        int  index = countStopsAtOrBefore( times[0] );
+        int  count = 0;
+        long prev  = Long.MIN_VALUE;
 
-        for( int i = 0; i < mSize; i++ ) {
-            a[i] = (T) new TimeBlock( node.mStart, node.mStop );
-            node = nextNode( node );
+        for( int i = 0; i < len; i++ ) {
+            long t = times[i];
+            if( t < prev ) {
+                throw new IllegalArgumentException( "Times not sorted at index " + i );
+            }
+            prev = t;
+
+            while( node != null && node.mStop <= t ) {
+                node = nextNode( node );
+                index++;
+            }
+
+            boolean hit = node != null && node.mStart <= t;
+            if( hit ) {
+                count++;
+            }
+            if( flags != null ) {
+                flags[i] = hit;
+            }
+            if( bits != null ) {
+                bits.set( i, hit );
+            }
+            if( indices != null ) {
+                indices[i] = hit ? index : -1;
+            }
         }
 
-        return a;
+        return count;
+    }
+
+    /**
+     * @return node at position {@code index} of in-order traversal, or null if out of bounds.
+     */
+    private Node nodeAt( int index ) {
+        Node node = mRoot;
+
+        while( node != null ) {
+            int leftCount = node.mLeft == null ? 0 : node.mLeft.mCount;
+            if( index < leftCount ) {
+                node = node.mLeft;
+            } else if( index == leftCount ) {
+                return node;
+            } else {
+                index -= leftCount + 1;
+                node = node.mRight;
+            }
+        }
+
+        return null;
+    }
+
+
+    private static TimeBlock toBlock( Node node ) {
+        return node == null ? null : new TimeBlock( node.mStart, node.mStop );
+    }
+
+    /**
+     * @return last node that overlaps [startMicros, stopMicros), or null if none.
+     */
+    private Node lastOverlap( long startMicros, long stopMicros ) {
+        Node node = mRoot;
+        Node last = null;
+
+        while( node != null ) {
+            if( stopMicros <= node.mStart ) {
+                node = node.mLeft;
+            } else if( startMicros >= node.mStop ) {
+                node = node.mRight;
+            } else {
+                last = node;
+                node = node.mRight;
+            }
+        }
+
+        return last;
+    }
+
+    /**
+     * Finds the first gap within subtree {@code node} that begins at or after {@code t}
+     * and is at least {@code minMicros} long. Subtrees that end before {@code t} or
+     * contain no large enough gap are skipped, and any subtree that begins after
+     * {@code t} and is not skipped is guaranteed to contain a match, so only O(log n)
+     * nodes are visited.
+     *
+     * @return node that ends the gap, or null if none.
+     */
+    private static Node findGap( Node node, long t, long minMicros ) {
+        if( node == null || node.mMaxGap < minMicros || node.mMaxStop < t ) {
+            return null;
+        }
+
+        Node ret = findGap( node.mLeft, t, minMicros );
+        if( ret != null ) {
+            return ret;
+        }
+
+        if( node.mLeft != null && node.mLeft.mMaxStop >= t && node.mStart - node.mLeft.mMaxStop >= minMicros ) {
+            return node;
+        }
+
+        if( node.mRight != null && node.mStop >= t && node.mRight.mMinStart - node.mStop >= minMicros ) {
+            node = node.mRight;
+            while( node.mLeft != null ) {
+                node = node.mLeft;
+            }
+            return node;
+        }
+
+        return findGap( node.mRight, t, minMicros );
+    }
+
+    /**
+     * @return first node whose gap from its predecessor is the smallest in the set.
+     *         Set must have at least two blocks.
+     */
+    private Node minGapNode() {
+        long target = mRoot.mMinGap;
+        Node node   = mRoot;
+
+        while( true ) {
+            Node left = node.mLeft;
+            if( left != null ) {
+                if( left.mMinGap == target ) {
+                    node = left;
+                    continue;
+                }
+                if( node.mStart - left.mMaxStop == target ) {
+                    return node;
+                }
+            }
+
+            Node right = node.mRight;
+            if( right.mMinStart - node.mStop == target ) {
+                while( right.mLeft != null ) {
+                    right = right.mLeft;
+                }
+                return right;
+            }
+            node = right;
+        }
+    }
+
+    private static double unsignedToDouble( long v ) {
+        return v >= 0 ? v : (double)( v >>> 1 ) * 2.0 + ( v & 1 );
+    }
+
+    /**
+     * Merges {@code node} with its predecessor by adding the gap between them.
+     */
+    private void closeGap( Node node ) {
+        addNotify( prevNode( node ).mStop, node.mStart );
+    }
+
+
+    private void enforceMaxBlocks() {
+        while( mSize > mMaxBlocks ) {
+            closeGap( minGapNode() );
+        }
     }
 
 
@@ -517,12 +1811,395 @@ public class TimeSet extends AbstractSet<TimeBlock> {
 
 
 
+    private void fireChanges( RangeBuffer added, RangeBuffer removed ) {
+        ChangeListener[] listeners = mListeners;
+        for( ChangeListener listener : listeners ) {
+            if( removed != null ) {
+                for( int i = 0; i < removed.mSize; i++ ) {
+                    listener.rangeRemoved( this, removed.mData[i * 2], removed.mData[i * 2 + 1] );
+                }
+            }
+            if( added != null ) {
+                for( int i = 0; i < added.mSize; i++ ) {
+                    listener.rangeAdded( this, added.mData[i * 2], added.mData[i * 2 + 1] );
+                }
+            }
+        }
+    }
+
+
+
+    /*************************************************************
+     * Set algebra and bulk construction
+     *************************************************************/
+
+    private static final int OP_UNION                = 0;
+    private static final int OP_INTERSECTION         = 1;
+    private static final int OP_DIFFERENCE           = 2;
+    private static final int OP_SYMMETRIC_DIFFERENCE = 3;
+
+
+    private static TimeSet combine( TimeSet a, TimeSet b, int op ) {
+        RangeBuffer buf = new RangeBuffer( a.mSize + b.mSize );
+        sweep( a, b, op, buf );
+        TimeSet ret = new TimeSet();
+        ret.setBlocks( buf.mData, buf.mSize );
+        return ret;
+    }
+
+
+    private boolean combineInPlace( TimeSet other, int op ) {
+        RangeBuffer buf = new RangeBuffer( mSize + other.mSize );
+        if( !sweep( this, other, op, buf ) ) {
+            return false;
+        }
+
+        if( mListeners == null ) {
+            setBlocks( buf.mData, buf.mSize );
+            if( mSize > mMaxBlocks ) {
+                enforceMaxBlocks();
+            }
+            return true;
+        }
+
+        // setBlocks() builds new nodes, so the old tree is left intact for diffing.
+        TimeSet prev = new TimeSet();
+        prev.mRoot = mRoot;
+        prev.mSize = mSize;
+        setBlocks( buf.mData, buf.mSize );
+
+        RangeBuffer added   = new RangeBuffer( 1 );
+        RangeBuffer removed = new RangeBuffer( 1 );
+        sweep( this, prev, OP_DIFFERENCE, added );
+        sweep( prev, this, OP_DIFFERENCE, removed );
+        fireChanges( added, removed );
+
+        if( mSize > mMaxBlocks ) {
+            enforceMaxBlocks();
+        }
+        return true;
+    }
+
+    /**
+     * Walks the block boundaries of both sets in order, writing each range where
+     * {@code op} holds to {@code out}.
+     *
+     * @return true iff the result differs from {@code a}.
+     */
+    private static boolean sweep( TimeSet a, TimeSet b, int op, RangeBuffer out ) {
+        Node na = a.firstNode();
+        Node nb = b.firstNode();
+        boolean inA = false;
+        boolean inB = false;
+        boolean inOut = false;
+        boolean changed = false;
+        long outStart = 0;
+
+        while( na != null || nb != null ) {
+            long ta = na == null ? 0 : inA ? na.mStop : na.mStart;
+            long tb = nb == null ? 0 : inB ? nb.mStop : nb.mStart;
+            long t  = na == null ? tb :
+                      nb == null ? ta : Math.min( ta, tb );
+
+            // Cross every boundary at t before evaluating, so that blocks
+            // touching at t are merged.
+            if( na != null && ta == t ) {
+                if( inA ) {
+                    na = a.nextNode( na );
+                }
+                inA = !inA;
+            }
+
+            if( nb != null && tb == t ) {
+                if( inB ) {
+                    nb = b.nextNode( nb );
+                }
+                inB = !inB;
+            }
+
+            boolean in;
+            switch( op ) {
+            case OP_UNION:
+                in = inA || inB;
+                break;
+            case OP_INTERSECTION:
+                in = inA && inB;
+                break;
+            case OP_DIFFERENCE:
+                in = inA && !inB;
+                break;
+            default:
+                in = inA != inB;
+                break;
+            }
+
+            changed |= in != inA;
+
+            if( in != inOut ) {
+                if( in ) {
+                    outStart = t;
+                } else {
+                    out.add( outStart, t );
+                }
+                inOut = in;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Merges unsorted blocks by sorting start and stop times independently. The
+     * number of blocks covering time t is the number of starts minus the number of
+     * stops at or before t, so covered ranges can be found with a single sweep
+     * over the two sorted arrays.
+     */
+    private static RangeBuffer mergeUnsorted( long[] starts, long[] stops, int off, int len ) {
+        long[] s = new long[len];
+        long[] e = new long[len];
+        int n = 0;
+
+        for( int i = off; i < off + len; i++ ) {
+            if( starts[i] < stops[i] ) {
+                s[n] = starts[i];
+                e[n] = stops[i];
+                n++;
+            }
+        }
+
+        Arrays.sort( s, 0, n );
+        Arrays.sort( e, 0, n );
+
+        RangeBuffer buf = new RangeBuffer( n );
+        if( n == 0 ) {
+            return buf;
+        }
+
+        int i = 0;
+        int j = 0;
+        int depth = 0;
+        long blockStart = 0;
+
+        while( i < n ) {
+            // Process starts before stops at the same time so that touching blocks merge.
+            if( s[i] <= e[j] ) {
+                if( depth++ == 0 ) {
+                    blockStart = s[i];
+                }
+                i++;
+            } else {
+                if( --depth == 0 ) {
+                    buf.add( blockStart, e[j] );
+                }
+                j++;
+            }
+        }
+
+        // The last stop is always after the last start.
+        buf.add( blockStart, e[n - 1] );
+        return buf;
+    }
+
+    /**
+     * Replaces contents of this set with a balanced tree built directly from
+     * sorted, disjoint, non-touching start/stop pairs. O(n).
+     */
+    private void setBlocks( long[] pairs, int count ) {
+        mRoot = count == 0 ? null : buildTree( pairs, 0, count - 1, 0, redLevel( count ) );
+        mSize = count;
+        mModCount++;
+    }
+
+
+
+    /*************************************************************
+     * Split and join
+     *
+     * Trees here are detached: each root has no parent and is black. Heights are
+     * black heights, counting black nodes from the root to a leaf, and are passed
+     * along rather than recomputed, so that the joins performed by a split cost
+     * O(log n) in total.
+     *************************************************************/
+
+    /**
+     * Splits the tree of this set into blocks before t and blocks at or after t.
+     * Leaves this set with an unusable tree; caller must call setRoot().
+     */
+    private Split splitTree( long t ) {
+        Split ret = new Split();
+        Node root = mRoot;
+        split( root, blackHeight( root ), t, ret );
+        return ret;
+    }
+
+
+    private void split( Node node, int height, long t, Split out ) {
+        if( node == null ) {
+            out.mLeft        = null;
+            out.mLeftHeight  = 0;
+            out.mRight       = null;
+            out.mRightHeight = 0;
+            return;
+        }
+
+        int childHeight = node.mColor == BLACK ? height - 1 : height;
+        Node left  = node.mLeft;
+        Node right = node.mRight;
+        int lh = detach( left, childHeight );
+        int rh = detach( right, childHeight );
+
+        if( t <= node.mStart ) {
+            split( left, lh, t, out );
+            out.mRightHeight = joinTrees( out.mRight, out.mRightHeight, node, right, rh );
+            out.mRight = mRoot;
+
+        } else if( t >= node.mStop ) {
+            split( right, rh, t, out );
+            out.mLeftHeight = joinTrees( left, lh, node, out.mLeft, out.mLeftHeight );
+            out.mLeft = mRoot;
+
+        } else {
+            out.mLeftHeight = joinTrees( left, lh, new Node( node.mStart, t ), null, 0 );
+            out.mLeft = mRoot;
+            out.mRightHeight = joinTrees( null, 0, new Node( t, node.mStop ), right, rh );
+            out.mRight = mRoot;
+        }
+    }
+
+    /**
+     * Joins two detached trees with {@code mid} between them. Every block in {@code left}
+     * must precede {@code mid}, which must precede every block in {@code right}, and
+     * none may touch. The result is left in mRoot, which is used as scratch space.
+     * Cost is O(|leftHeight - rightHeight| + 1).
+     *
+     * @return black height of result
+     */
+    private int joinTrees( Node left, int leftHeight, Node mid, Node right, int rightHeight ) {
+        mid.mParent = null;
+        mid.mLeft   = left;
+        mid.mRight  = right;
+
+        if( leftHeight == rightHeight ) {
+            if( left != null ) {
+                left.mParent = mid;
+            }
+            if( right != null ) {
+                right.mParent = mid;
+            }
+            mid.mColor = BLACK;
+            update( mid );
+            mRoot = mid;
+            return leftHeight + 1;
+        }
+
+        if( leftHeight > rightHeight ) {
+            // Descend right spine of left tree to a black node with same height as right tree.
+            Node parent = null;
+            Node node   = left;
+            int h = leftHeight;
+            while( node != null && ( node.mColor == RED || h > rightHeight ) ) {
+                if( node.mColor == BLACK ) {
+                    h--;
+                }
+                parent = node;
+                node   = node.mRight;
+            }
+
+            mid.mLeft = node;
+            if( node != null ) {
+                node.mParent = mid;
+            }
+            if( right != null ) {
+                right.mParent = mid;
+            }
+            mid.mParent   = parent;
+            parent.mRight = mid;
+            mRoot = left;
+            update( mid );
+            updatePath( parent );
+            return rebalanceInsert( mid, parent, false ) ? leftHeight + 1 : leftHeight;
+        }
+
+        // Mirror of above.
+        Node parent = null;
+        Node node   = right;
+        int h = rightHeight;
+        while( node != null && ( node.mColor == RED || h > leftHeight ) ) {
+            if( node.mColor == BLACK ) {
+                h--;
+            }
+            parent = node;
+            node   = node.mLeft;
+        }
+
+        mid.mRight = node;
+        if( node != null ) {
+            node.mParent = mid;
+        }
+        if( left != null ) {
+            left.mParent = mid;
+        }
+        mid.mParent  = parent;
+        parent.mLeft = mid;
+        mRoot = right;
+        update( mid );
+        updatePath( parent );
+        return rebalanceInsert( mid, parent, true ) ? rightHeight + 1 : rightHeight;
+    }
+
+    /**
+     * Detaches subtree from its parent and colors its root black.
+     *
+     * @param height black height of {@code node} before recoloring
+     * @return black height of detached tree
+     */
+    private static int detach( Node node, int height ) {
+        if( node == null ) {
+            return 0;
+        }
+        node.mParent = null;
+        if( node.mColor == RED ) {
+            node.mColor = BLACK;
+            return height + 1;
+        }
+        return height;
+    }
+
+
+    private static int blackHeight( Node node ) {
+        int h = 0;
+        while( node != null ) {
+            if( node.mColor == BLACK ) {
+                h++;
+            }
+            node = node.mLeft;
+        }
+        return h;
+    }
+
+
+    private void setRoot( Node root ) {
+        if( root != null ) {
+            root.mParent = null;
+            root.mColor  = BLACK;
+        }
+        mRoot = root;
+        mSize = root == null ? 0 : root.mCount;
+        mModCount++;
+    }
+
+
+
     /*************************************************************
      * Fundamental Red-Black Tree Operations
      * 
      * These operations do not look at the data portion (mStart & mStop) of each
      * node, and thus may be easily transferred to other classes. These methods
      * only rely on two member variables: mRoot, mSize and mModCount.
+     *
+     * The exception is update(), which maintains subtree aggregates. Every
+     * change to the tree structure is followed by update() on the affected nodes,
+     * children before parents.
      *************************************************************/
 
     private static final boolean BLACK = false;
@@ -547,16 +2224,27 @@ public class TimeSet extends AbstractSet<TimeBlock> {
             parent.mRight = node;
         }
 
+        updatePath( parent );
+        rebalanceInsert( node, parent, left );
+    }
+
+    /**
+     * Restores red-black properties after {@code node} is linked beneath {@code parent}
+     * and aggregates have been updated. {@code node} is colored red.
+     *
+     * @return true iff the black height of the tree increased.
+     */
+    private boolean rebalanceInsert( Node node, Node parent, boolean left ) {
         while( true ) {
             if( parent == null ) {
                 node.mColor = BLACK;
-                return;
+                return true;
             }
 
             node.mColor = RED;
 
             if( parent.mColor == BLACK ) {
-                return;
+                return false;
             }
 
             Node grandParent = parent.mParent;
@@ -597,7 +2285,7 @@ public class TimeSet extends AbstractSet<TimeBlock> {
                 rotateLeft( grandParent );
             }
 
-            break;
+            return false;
         }
     }
 
@@ -641,6 +2329,8 @@ public class TimeSet extends AbstractSet<TimeBlock> {
             } else {
                 newParent.mRight = node;
             }
+
+            updatePath( newParent );
         }
 
         // If oldParent was RED, the constraints will be maintained.
@@ -761,6 +2451,9 @@ public class TimeSet extends AbstractSet<TimeBlock> {
                 right.mParent.mRight = right;
             }
         }
+
+        update( node );
+        update( right );
     }
 
 
@@ -791,6 +2484,55 @@ public class TimeSet extends AbstractSet<TimeBlock> {
                 left.mParent.mLeft = left;
             }
         }
+
+        update( node );
+        update( left );
+    }
+
+
+    /**
+     * Recomputes subtree aggregates of {@code node} from its children.
+     */
+    private static void update( Node node ) {
+        Node left  = node.mLeft;
+        Node right = node.mRight;
+        long span  = node.mStop - node.mStart;
+        int count  = 1;
+        long gap   = 0;
+        long minGap = Long.MAX_VALUE;
+
+        if( left != null ) {
+            span  += left.mSpan;
+            count += left.mCount;
+            gap    = Math.max( left.mMaxGap, node.mStart - left.mMaxStop );
+            minGap = Math.min( left.mMinGap, node.mStart - left.mMaxStop );
+            node.mMinStart = left.mMinStart;
+        } else {
+            node.mMinStart = node.mStart;
+        }
+
+        if( right != null ) {
+            span  += right.mSpan;
+            count += right.mCount;
+            gap    = Math.max( gap, Math.max( right.mMaxGap, right.mMinStart - node.mStop ) );
+            minGap = Math.min( minGap, Math.min( right.mMinGap, right.mMinStart - node.mStop ) );
+            node.mMaxStop = right.mMaxStop;
+        } else {
+            node.mMaxStop = node.mStop;
+        }
+
+        node.mSpan   = span;
+        node.mCount  = count;
+        node.mMaxGap = gap;
+        node.mMinGap = minGap;
+    }
+
+
+    private static void updatePath( Node node ) {
+        while( node != null ) {
+            update( node );
+            node = node.mParent;
+        }
     }
 
 
@@ -821,6 +2563,27 @@ public class TimeSet extends AbstractSet<TimeBlock> {
         return node;
     }
 
+    /**
+     * @return first node that overlaps [startMicros, stopMicros), or null if none.
+     */
+    private Node firstOverlap( long startMicros, long stopMicros ) {
+        Node node  = mRoot;
+        Node first = null;
+
+        while( node != null ) {
+            if( stopMicros <= node.mStart ) {
+                node = node.mLeft;
+            } else if( startMicros >= node.mStop ) {
+                node = node.mRight;
+            } else {
+                first = node;
+                node = node.mLeft;
+            }
+        }
+
+        return first;
+    }
+
 
     private Node nextNode( Node node ) {
         if( node.mRight != null ) {
@@ -842,6 +2605,26 @@ public class TimeSet extends AbstractSet<TimeBlock> {
     }
 
 
+    private Node prevNode( Node node ) {
+        if( node.mLeft != null ) {
+            node = node.mLeft;
+
+            while( node.mRight != null ) {
+                node = node.mRight;
+            }
+
+        } else {
+            while( node.mParent != null && node.mParent.mLeft == node ) {
+                node = node.mParent;
+            }
+
+            node = node.mParent;
+        }
+
+        return node;
+    }
+
+
     private void swapNodes( Node a, Node b ) {
 
         if( a.mParent == b ) {
@@ -958,6 +2741,41 @@ public class TimeSet extends AbstractSet<TimeBlock> {
     }
 
 
+    /**
+     * Builds a balanced subtree from pairs [lo, hi]. Nodes on {@code redLevel}, which is
+     * only partially filled, are colored RED, all others BLACK.
+     */
+    private static Node buildTree( long[] pairs, int lo, int hi, int level, int redLevel ) {
+        int mid = ( lo + hi ) >>> 1;
+        Node node = new Node( pairs[mid * 2], pairs[mid * 2 + 1] );
+        node.mColor = level == redLevel ? RED : BLACK;
+
+        if( lo < mid ) {
+            node.mLeft = buildTree( pairs, lo, mid - 1, level + 1, redLevel );
+            node.mLeft.mParent = node;
+        }
+
+        if( mid < hi ) {
+            node.mRight = buildTree( pairs, mid + 1, hi, level + 1, redLevel );
+            node.mRight.mParent = node;
+        }
+
+        update( node );
+        return node;
+    }
+
+    /**
+     * @return level of deepest, partially filled row of a balanced tree of {@code count} nodes.
+     */
+    private static int redLevel( int count ) {
+        int level = 0;
+        for( int m = count - 1; m >= 0; m = m / 2 - 1 ) {
+            level++;
+        }
+        return level;
+    }
+
+
     
     private static class Node {
         public final long mStart;
@@ -967,10 +2785,158 @@ public class TimeSet extends AbstractSet<TimeBlock> {
         public Node    mParent = null;
         public Node    mLeft   = null;
         public Node    mRight  = null;
+
+        // Subtree aggregates maintained by update().
+        public long    mSpan;
+        public int     mCount  = 1;
+        public long    mMinStart;
+        public long    mMaxStop;
+        public long    mMaxGap = 0;
+        public long    mMinGap = Long.MAX_VALUE;
         
         public Node( long start, long stop ) {
             mStart = start;
             mStop = stop;
+            mSpan = stop - start;
+            mMinStart = start;
+            mMaxStop = stop;
+        }
+    }
+
+
+    private static final class Split {
+        Node mLeft;
+        int  mLeftHeight;
+        Node mRight;
+        int  mRightHeight;
+    }
+
+
+    /**
+     * Finds largest gap ending at a block in (first, last], in O(log n). Each gap is
+     * identified by the block that ends it. Subtrees that lie entirely in range are
+     * evaluated from their aggregates alone.
+     */
+    private static final class GapQuery {
+        final long mFirstStart;
+        final long mFirstStop;
+        final long mLastStart;
+        final long mLastStop;
+
+        long    mGap = -1;
+        Node    mNode;
+        boolean mWholeTree;
+        long    mPredStop;
+
+        GapQuery( Node first, Node last ) {
+            mFirstStart = first.mStart;
+            mFirstStop  = first.mStop;
+            mLastStart  = last.mStart;
+            mLastStop   = last.mStop;
+        }
+
+        /**
+         * @param predStop stop time of block preceding subtree, or Long.MIN_VALUE if none.
+         */
+        void search( Node node, long predStop ) {
+            if( node == null || node.mMaxStop <= mFirstStop || node.mMinStart > mLastStart ) {
+                return;
+            }
+
+            if( node.mMinStart > mFirstStart && node.mMaxStop <= mLastStop ) {
+                long gap = Math.max( node.mMaxGap, node.mMinStart - predStop );
+                if( gap > mGap ) {
+                    mGap       = gap;
+                    mNode      = node;
+                    mWholeTree = true;
+                    mPredStop  = predStop;
+                }
+                return;
+            }
+
+            search( node.mLeft, predStop );
+
+            if( node.mStart > mFirstStart && node.mStart <= mLastStart ) {
+                long gap = node.mStart - ( node.mLeft == null ? predStop : node.mLeft.mMaxStop );
+                if( gap > mGap ) {
+                    mGap       = gap;
+                    mNode      = node;
+                    mWholeTree = false;
+                }
+            }
+
+            search( node.mRight, node.mStop );
+        }
+
+        /**
+         * @return node that ends the largest gap.
+         */
+        Node result() {
+            if( !mWholeTree ) {
+                return mNode;
+            }
+
+            Node node     = mNode;
+            long predStop = mPredStop;
+
+            while( true ) {
+                if( node.mMinStart - predStop == mGap ) {
+                    while( node.mLeft != null ) {
+                        node = node.mLeft;
+                    }
+                    return node;
+                }
+
+                if( node.mLeft != null && node.mLeft.mMaxGap == mGap ) {
+                    node = node.mLeft;
+                    continue;
+                }
+
+                if( node.mStart - ( node.mLeft == null ? predStop : node.mLeft.mMaxStop ) == mGap ) {
+                    return node;
+                }
+
+                predStop = node.mStop;
+                node = node.mRight;
+            }
+        }
+    }
+
+    /**
+     * Growable list of sorted start/stop pairs. Appended blocks that touch or
+     * overlap the last block are merged into it.
+     */
+    private static final class RangeBuffer implements RangeVisitor {
+        long[] mData;
+        int    mSize = 0;
+
+        RangeBuffer( int capacity ) {
+            mData = new long[Math.max( 8, capacity * 2 )];
+        }
+
+        @Override
+        public boolean visit( long startMicros, long stopMicros ) {
+            if( startMicros < stopMicros ) {
+                add( startMicros, stopMicros );
+            }
+            return true;
+        }
+
+        void add( long startMicros, long stopMicros ) {
+            if( mSize > 0 && startMicros <= mData[mSize * 2 - 1] ) {
+                if( stopMicros > mData[mSize * 2 - 1] ) {
+                    mData[mSize * 2 - 1] = stopMicros;
+                }
+                return;
+            }
+
+            if( mSize * 2 == mData.length ) {
+                mData = Arrays.copyOf( mData, mData.length * 2 );
+            }
+
+            mData[mSize * 2]     = startMicros;
+            mData[mSize * 2 + 1] = stopMicros;
+            mSize++;
         }
     }
 
@@ -982,9 +2948,29 @@ public class TimeSet extends AbstractSet<TimeBlock> {
 
     private class TimeIterator implements Iterator<TimeBlock> {
 
+        private final long    mRangeStart;
+        private final long    mRangeStop;
+        private final boolean mDescending;
+
         private int  mIterMod = mModCount;
         private Node mPrev    = null;
-        private Node mNext    = firstNode();
+        private Node mNext;
+
+        TimeIterator() {
+            mRangeStart = Long.MIN_VALUE;
+            mRangeStop  = Long.MAX_VALUE;
+            mDescending = false;
+            mNext       = firstNode();
+        }
+
+        TimeIterator( long rangeStart, long rangeStop, boolean descending ) {
+            mRangeStart = rangeStart;
+            mRangeStop  = rangeStop;
+            mDescending = descending;
+            if( rangeStop > rangeStart ) {
+                mNext = descending ? lastOverlap( rangeStart, rangeStop ) : firstOverlap( rangeStart, rangeStop );
+            }
+        }
 
         @Override
         public boolean hasNext() {
@@ -1001,9 +2987,20 @@ public class TimeSet extends AbstractSet<TimeBlock> {
                 throw new ConcurrentModificationException();
             }
 
-            TimeBlock ret = new TimeBlock( mNext.mStart, mNext.mStop );
+            TimeBlock ret = new TimeBlock( Math.max( mNext.mStart, mRangeStart ), Math.min( mNext.mStop, mRangeStop ) );
             mPrev = mNext;
-            mNext = nextNode( mNext );
+
+            if( mDescending ) {
+                mNext = prevNode( mNext );
+                if( mNext != null && mNext.mStop <= mRangeStart ) {
+                    mNext = null;
+                }
+            } else {
+                mNext = nextNode( mNext );
+                if( mNext != null && mNext.mStart >= mRangeStop ) {
+                    mNext = null;
+                }
+            }
 
             return ret;
         }
@@ -1018,13 +3015,298 @@ public class TimeSet extends AbstractSet<TimeBlock> {
                 throw new ConcurrentModificationException();
             }
 
-            removeNode( mPrev );
+            if( mPrev.mStart >= mRangeStart && mPrev.mStop <= mRangeStop ) {
+                removeNode( mPrev );
+                if( mListeners != null ) {
+                    RangeBuffer removed = new RangeBuffer( 1 );
+                    removed.add( mPrev.mStart, mPrev.mStop );
+                    fireChanges( null, removed );
+                }
+            } else {
+                // Only remove portion of block within range.
+                TimeSet.this.remove( Math.max( mPrev.mStart, mRangeStart ), Math.min( mPrev.mStop, mRangeStop ) );
+            }
+
             mPrev = null;
             mIterMod = mModCount;
         }
 
     }
 
+
+    /**
+     * Receives changes in coverage from a TimeSet. Each modification reports only
+     * net changes: ranges that were not covered before and are now, and ranges that
+     * were covered before and are not now. Merges and splits of existing blocks that
+     * do not change coverage are not reported, so a mirror of the set can be updated
+     * with work proportional to the change rather than to the size of the set.
+     * <p>
+     * Listeners are called after the modification completes, with ranges in order,
+     * removed ranges before added ranges. Listeners must not modify the set.
+     */
+    public interface ChangeListener {
+        void rangeAdded( TimeSet source, long startMicros, long stopMicros );
+        void rangeRemoved( TimeSet source, long startMicros, long stopMicros );
+    }
+
+
+    /**
+     * Splittable, ordered traversal over a run of blocks in a TimeSet. Positions are
+     * found from subtree counts, so splitting is O(log n) and sizes are exact.
+     * Blocks are delivered as primitive pairs to a RangeVisitor.
+     */
+    public final class Splitter {
+
+        private final int mIterMod = mModCount;
+        private int  mLo;
+        private int  mHi;
+        private Node mNode;
+
+        Splitter( int lo, int hi, Node node ) {
+            mLo   = lo;
+            mHi   = hi;
+            mNode = node;
+        }
+
+        /**
+         * Splits off the first half of the remaining blocks into a new Splitter.
+         *
+         * @return Splitter over the first half of remaining blocks, or null if fewer than two remain.
+         */
+        public Splitter trySplit() {
+            if( mHi - mLo < 2 ) {
+                return null;
+            }
+            checkMod();
+
+            int mid = ( mLo + mHi ) >>> 1;
+            Splitter ret = new Splitter( mLo, mid, mNode );
+            mLo   = mid;
+            mNode = null;
+            return ret;
+        }
+
+        /**
+         * @return exact number of blocks remaining.
+         */
+        public int estimateSize() {
+            return mHi - mLo;
+        }
+
+        /**
+         * Passes the next block to {@code visitor}, if any remain.
+         *
+         * @return true if a block was visited.
+         */
+        public boolean tryAdvance( RangeVisitor visitor ) {
+            if( mLo >= mHi ) {
+                return false;
+            }
+            checkMod();
+
+            Node node = mNode == null ? nodeAt( mLo ) : mNode;
+            mLo++;
+            mNode = mLo < mHi ? nextNode( node ) : null;
+            visitor.visit( node.mStart, node.mStop );
+            return true;
+        }
+
+        /**
+         * Passes all remaining blocks to {@code visitor}, in order.
+         *
+         * @return true if all blocks were visited, false if visitor stopped early.
+         */
+        public boolean forEachRemaining( RangeVisitor visitor ) {
+            if( mLo >= mHi ) {
+                return true;
+            }
+            checkMod();
+
+            Node node = mNode == null ? nodeAt( mLo ) : mNode;
+            while( mLo < mHi ) {
+                Node n = node;
+                mLo++;
+                node = mLo < mHi ? nextNode( node ) : null;
+                if( !visitor.visit( n.mStart, n.mStop ) ) {
+                    mNode = node;
+                    return false;
+                }
+            }
+
+            mNode = null;
+            return true;
+        }
+
+        private void checkMod() {
+            if( mModCount != mIterMod ) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+
+    /**
+     * Finger for point queries that move in small steps, such as following a playhead.
+     * Each query climbs from the previously found node only until reaching a subtree
+     * that spans the query time, then descends, so cost grows with the distance moved
+     * rather than with the size of the set.
+     * <p>
+     * A Cursor may be kept across modifications of its set. If the set has been
+     * modified, the next query simply restarts from the root.
+     */
+    public final class Cursor {
+
+        private int     mIterMod = mModCount;
+        private Node    mNode    = null;
+        private boolean mHit     = false;
+        private long    mStart   = 0;
+        private long    mStop    = 0;
+
+        Cursor() {}
+
+        /**
+         * Moves cursor to the block containing {@code timeMicro}, if any.
+         *
+         * @return true iff the set contains timeMicro.
+         */
+        public boolean seek( long timeMicro ) {
+            Node node = mNode;
+
+            if( node == null || mIterMod != mModCount ) {
+                node = mRoot;
+                mIterMod = mModCount;
+            } else {
+                while( node.mParent != null && ( timeMicro < node.mMinStart || timeMicro >= node.mMaxStop ) ) {
+                    node = node.mParent;
+                }
+            }
+
+            Node last = node;
+            while( node != null ) {
+                last = node;
+                if( timeMicro < node.mStart ) {
+                    node = node.mLeft;
+                } else if( timeMicro >= node.mStop ) {
+                    node = node.mRight;
+                } else {
+                    mNode  = node;
+                    mHit   = true;
+                    mStart = node.mStart;
+                    mStop  = node.mStop;
+                    return true;
+                }
+            }
+
+            mNode = last;
+            mHit  = false;
+            return false;
+        }
+
+        /**
+         * Equivalent to {@link #seek(long)}.
+         */
+        public boolean contains( long timeMicro ) {
+            return seek( timeMicro );
+        }
+
+        /**
+         * @return the block containing timeMicro, or null if none.
+         */
+        public TimeBlock blockContaining( long timeMicro ) {
+            return seek( timeMicro ) ? new TimeBlock( mStart, mStop ) : null;
+        }
+
+        /**
+         * @return true iff the last call to seek found a containing block.
+         */
+        public boolean hasBlock() {
+            return mHit;
+        }
+
+        /**
+         * @return start of the block found by the last call to seek.
+         * @throws IllegalStateException if last seek did not find a block.
+         */
+        public long startMicros() {
+            if( !mHit ) {
+                throw new IllegalStateException( "No block at cursor" );
+            }
+            return mStart;
+        }
+
+        /**
+         * @return stop of the block found by the last call to seek.
+         * @throws IllegalStateException if last seek did not find a block.
+         */
+        public long stopMicros() {
+            if( !mHit ) {
+                throw new IllegalStateException( "No block at cursor" );
+            }
+            return mStop;
+        }
+    }
+
+
+    private class SubSet extends AbstractSet<TimeBlock> {
+
+        private final long mStart;
+        private final long mStop;
+
+        SubSet( long start, long stop ) {
+            mStart = start;
+            mStop  = stop;
+        }
+
+        @Override
+        public Iterator<TimeBlock> iterator() {
+            return new TimeIterator( mStart, mStop, false );
+        }
+
+        @Override
+        public int size() {
+            return countIn( mStart, mStop );
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return firstOverlap( mStart, mStop ) == null;
+        }
+
+        @Override
+        public boolean contains( Object obj ) {
+            if( !( obj instanceof TimeBlock ) ) {
+                return false;
+            }
+            TimeBlock tb = (TimeBlock)obj;
+            return tb.startMicros() >= mStart &&
+                   tb.stopMicros() <= mStop &&
+                   TimeSet.this.contains( tb.startMicros(), tb.stopMicros() );
+        }
+
+        @Override
+        public boolean add( TimeBlock tb ) {
+            if( tb.startMicros() < mStart || tb.stopMicros() > mStop ) {
+                throw new IllegalArgumentException( "TimeBlock out of range" );
+            }
+            return TimeSet.this.add( tb.startMicros(), tb.stopMicros() );
+        }
+
+        @Override
+        public boolean remove( Object obj ) {
+            if( !( obj instanceof TimeBlock ) ) {
+                return false;
+            }
+            TimeBlock tb = (TimeBlock)obj;
+            return TimeSet.this.remove( Math.max( tb.startMicros(), mStart ), Math.min( tb.stopMicros(), mStop ) );
+        }
+
+        @Override
+        public void clear() {
+            TimeSet.this.remove( mStart, mStop );
+        }
+
+    }
+
     
     /**
      * Returns the smallest TimeBlock that is a superset of this TimeSet.
@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ * Compact streaming encoding of time blocks. Each block is stored as the difference
+ * between its start and the previous block's stop, followed by its length. Both are
+ * written as zigzag varints, so densely packed sets take a few bytes per block
+ * rather than sixteen. Input need not be sorted or disjoint; unsorted input simply
+ * compresses less well.
+ * <p>
+ * Blocks are written in frames. When bounds are enabled, each frame header records
+ * the lowest start and highest stop in the frame, and deltas restart at each frame,
+ * so {@link #read(InputStream, long, long, RangeVisitor)} can skip frames that lie
+ * outside the requested range without decoding them.
+ * <p>
+ * Stream format:
+ * <pre>
+ *   byte[4] magic       "TSVZ"
+ *   byte    version     1
+ *   byte    flags       1 if frames carry bounds
+ *   frame*
+ *   varint  0           end of stream
+ *
+ * frame:
+ *   varint  blockCount  greater than zero
+ *   varint  payloadSize bytes
+ *   zigzag  minStart    minus minStart of previous frame     (bounds only)
+ *   zigzag  maxStop     minus minStart                       (bounds only)
+ *   payload:
+ *     zigzag  start     minus previous stop
+ *     zigzag  stop      minus start
+ * </pre>
+ * The first "previous stop" of a frame is its minStart when bounds are enabled, or
+ * the last stop of the previous frame otherwise. Values for the first frame are
+ * relative to zero. All arithmetic wraps, so any long values round trip.
+ * <p>
+ * Encoding a TimeSet and decoding into one do not allocate per block.
+ *
+ * @author Philip DeCamp
+ */
+public final class TimeSetCodec {
+
+    public static final int DEFAULT_FRAME_SIZE = 256;
+
+    private static final byte[] MAGIC       = { 'T', 'S', 'V', 'Z' };
+    private static final int    VERSION     = 1;
+    private static final int    FLAG_BOUNDS = 1;
+
+    // Maximum bytes in one varint-encoded long.
+    private static final int MAX_VARINT = 10;
+
+
+    /**
+     * Writes {@code set} to {@code out} with the default frame size and frame bounds.
+     * Does not close {@code out}.
+     */
+    public static void write( TimeSet set, OutputStream out ) throws IOException {
+        write( set, out, DEFAULT_FRAME_SIZE, true );
+    }
+
+    /**
+     * Writes {@code blocks} to {@code out}. Does not close {@code out}.
+     *
+     * @param frameSize maximum blocks per frame
+     * @param bounds    whether to record bounds of each frame, allowing frames to be skipped when read
+     */
+    public static void write( Iterable<? extends TimeRanged> blocks,
+                              OutputStream out,
+                              int frameSize,
+                              boolean bounds )
+                              throws IOException
+    {
+        final Writer writer = new Writer( out, frameSize, bounds );
+
+        if( blocks instanceof TimeSet ) {
+            final IOException[] err = { null };
+            ((TimeSet)blocks).visit( new RangeVisitor() {
+                @Override
+                public boolean visit( long startMicros, long stopMicros ) {
+                    try {
+                        writer.write( startMicros, stopMicros );
+                        return true;
+                    } catch( IOException e ) {
+                        err[0] = e;
+                        return false;
+                    }
+                }
+            } );
+            if( err[0] != null ) {
+                throw err[0];
+            }
+        } else {
+            for( TimeRanged b : blocks ) {
+                writer.write( b.startMicros(), b.stopMicros() );
+            }
+        }
+
+        writer.finish();
+    }
+
+    /**
+     * Reads a stream into a new TimeSet. Blocks are collected into arrays and the set
+     * is built in bulk with {@link TimeSet#fromArrays(long[], long[], int, int)}.
+     */
+    public static TimeSet read( InputStream in ) throws IOException {
+        return read( in, Long.MIN_VALUE, Long.MAX_VALUE );
+    }
+
+    /**
+     * Reads the portion of a stream within [startMicros, stopMicros) into a new TimeSet.
+     */
+    public static TimeSet read( InputStream in, long startMicros, long stopMicros ) throws IOException {
+        PairCollector pairs = new PairCollector();
+        read( in, startMicros, stopMicros, pairs );
+        return TimeSet.fromArrays( pairs.mStarts, pairs.mStops, 0, pairs.mSize );
+    }
+
+    /**
+     * Decodes a stream, passing each non-empty intersection of a stored block with
+     * [startMicros, stopMicros) to {@code visitor}, in stored order. If the stream has
+     * frame bounds, frames outside the range are skipped without being decoded.
+     * Reads through the end-of-stream marker unless the visitor stops early.
+     *
+     * @return true if all blocks were visited, false if visitor stopped early.
+     */
+    public static boolean read( InputStream in, long startMicros, long stopMicros, RangeVisitor visitor ) throws IOException {
+        byte[] head = new byte[MAGIC.length + 2];
+        readFully( in, head, head.length );
+        for( int i = 0; i < MAGIC.length; i++ ) {
+            if( head[i] != MAGIC[i] ) {
+                throw new IOException( "Not a TimeSetCodec stream" );
+            }
+        }
+        if( head[MAGIC.length] != VERSION ) {
+            throw new IOException( "Unsupported TimeSetCodec version: " + head[MAGIC.length] );
+        }
+
+        final boolean bounds = ( head[MAGIC.length + 1] & FLAG_BOUNDS ) != 0;
+        byte[] payload = new byte[64];
+        int[] pos = { 0 };
+        long prevBase = 0;
+        long prevStop = 0;
+
+        while( true ) {
+            int count = (int)readVarint( in );
+            if( count == 0 ) {
+                return true;
+            }
+            int size = (int)readVarint( in );
+
+            if( bounds ) {
+                long min = prevBase + unzigzag( readVarint( in ) );
+                long max = min + unzigzag( readVarint( in ) );
+                prevBase = min;
+                if( max <= startMicros || min >= stopMicros ) {
+                    skipFully( in, size );
+                    continue;
+                }
+                prevStop = min;
+            }
+
+            if( payload.length < size ) {
+                payload = new byte[Math.max( size, payload.length * 2 )];
+            }
+            readFully( in, payload, size );
+
+            pos[0] = 0;
+            for( int i = 0; i < count; i++ ) {
+                long start = prevStop + unzigzag( readVarint( payload, size, pos ) );
+                long stop  = start + unzigzag( readVarint( payload, size, pos ) );
+                prevStop = stop;
+
+                long a = Math.max( start, startMicros );
+                long b = Math.min( stop, stopMicros );
+                if( a < b && !visitor.visit( a, b ) ) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Incremental encoder. Blocks are buffered until a frame is full, so no output
+     * is complete until {@link #finish()} is called.
+     */
+    public static final class Writer {
+
+        private final OutputStream mOut;
+        private final boolean      mBounds;
+        private final long[]       mFrame;
+        private final byte[]       mPayload;
+        private final byte[]       mHead = new byte[MAX_VARINT * 4];
+
+        private int     mCount    = 0;
+        private long    mPrevBase = 0;
+        private long    mPrevStop = 0;
+        private boolean mFinished = false;
+
+
+        public Writer( OutputStream out ) throws IOException {
+            this( out, DEFAULT_FRAME_SIZE, true );
+        }
+
+        /**
+         * Writes stream header to {@code out}.
+         *
+         * @param frameSize maximum blocks per frame
+         * @param bounds    whether to record bounds of each frame
+         */
+        public Writer( OutputStream out, int frameSize, boolean bounds ) throws IOException {
+            if( frameSize < 1 ) {
+                throw new IllegalArgumentException( "frameSize < 1" );
+            }
+            mOut     = out;
+            mBounds  = bounds;
+            mFrame   = new long[frameSize * 2];
+            mPayload = new byte[frameSize * MAX_VARINT * 2];
+
+            byte[] head = Arrays.copyOf( MAGIC, MAGIC.length + 2 );
+            head[MAGIC.length]     = VERSION;
+            head[MAGIC.length + 1] = (byte)( bounds ? FLAG_BOUNDS : 0 );
+            out.write( head );
+        }
+
+
+        public void write( long startMicros, long stopMicros ) throws IOException {
+            if( mFinished ) {
+                throw new IllegalStateException( "Writer is finished" );
+            }
+            mFrame[mCount * 2]     = startMicros;
+            mFrame[mCount * 2 + 1] = stopMicros;
+            if( ++mCount * 2 == mFrame.length ) {
+                writeFrame();
+            }
+        }
+
+
+        public void write( TimeRanged block ) throws IOException {
+            write( block.startMicros(), block.stopMicros() );
+        }
+
+        /**
+         * Writes any buffered blocks and the end-of-stream marker, then flushes
+         * the underlying stream. Does not close it.
+         */
+        public void finish() throws IOException {
+            if( mFinished ) {
+                return;
+            }
+            writeFrame();
+            mOut.write( 0 );
+            mOut.flush();
+            mFinished = true;
+        }
+
+
+        private void writeFrame() throws IOException {
+            if( mCount == 0 ) {
+                return;
+            }
+
+            long prev = mPrevStop;
+            long min  = 0;
+            long max  = 0;
+            if( mBounds ) {
+                min = Long.MAX_VALUE;
+                max = Long.MIN_VALUE;
+                for( int i = 0; i < mCount; i++ ) {
+                    min = Math.min( min, mFrame[i * 2] );
+                    max = Math.max( max, mFrame[i * 2 + 1] );
+                }
+                prev = min;
+            }
+
+            int size = 0;
+            for( int i = 0; i < mCount; i++ ) {
+                long start = mFrame[i * 2];
+                long stop  = mFrame[i * 2 + 1];
+                size = writeVarint( zigzag( start - prev ), mPayload, size );
+                size = writeVarint( zigzag( stop - start ), mPayload, size );
+                prev = stop;
+            }
+
+            int headSize = writeVarint( mCount, mHead, 0 );
+            headSize = writeVarint( size, mHead, headSize );
+            if( mBounds ) {
+                headSize = writeVarint( zigzag( min - mPrevBase ), mHead, headSize );
+                headSize = writeVarint( zigzag( max - min ), mHead, headSize );
+                mPrevBase = min;
+            }
+
+            mOut.write( mHead, 0, headSize );
+            mOut.write( mPayload, 0, size );
+            mPrevStop = prev;
+            mCount = 0;
+        }
+    }
+
+
+
+    private static long zigzag( long v ) {
+        return ( v << 1 ) ^ ( v >> 63 );
+    }
+
+
+    private static long unzigzag( long v ) {
+        return ( v >>> 1 ) ^ -( v & 1 );
+    }
+
+
+    private static int writeVarint( long v, byte[] out, int off ) {
+        while( ( v & ~0x7FL ) != 0 ) {
+            out[off++] = (byte)( ( v & 0x7F ) | 0x80 );
+            v >>>= 7;
+        }
+        out[off++] = (byte)v;
+        return off;
+    }
+
+
+    private static long readVarint( byte[] buf, int len, int[] pos ) throws IOException {
+        int p = pos[0];
+        long ret = 0;
+        for( int shift = 0; shift < 64; shift += 7 ) {
+            if( p >= len ) {
+                throw new IOException( "Truncated frame" );
+            }
+            byte b = buf[p++];
+            ret |= (long)( b & 0x7F ) << shift;
+            if( b >= 0 ) {
+                pos[0] = p;
+                return ret;
+            }
+        }
+        throw new IOException( "Malformed varint" );
+    }
+
+
+    private static long readVarint( InputStream in ) throws IOException {
+        long ret = 0;
+        for( int shift = 0; shift < 64; shift += 7 ) {
+            int b = in.read();
+            if( b < 0 ) {
+                throw new EOFException();
+            }
+            ret |= (long)( b & 0x7F ) << shift;
+            if( ( b & 0x80 ) == 0 ) {
+                return ret;
+            }
+        }
+        throw new IOException( "Malformed varint" );
+    }
+
+
+    private static void readFully( InputStream in, byte[] out, int len ) throws IOException {
+        int off = 0;
+        while( off < len ) {
+            int n = in.read( out, off, len - off );
+            if( n < 0 ) {
+                throw new EOFException();
+            }
+            off += n;
+        }
+    }
+
+
+    private static void skipFully( InputStream in, long len ) throws IOException {
+        while( len > 0 ) {
+            long n = in.skip( len );
+            if( n <= 0 ) {
+                // skip() may refuse to move; fall back to read().
+                if( in.read() < 0 ) {
+                    throw new EOFException();
+                }
+                n = 1;
+            }
+            len -= n;
+        }
+    }
+
+
+    private static final class PairCollector implements RangeVisitor {
+        long[] mStarts = new long[16];
+        long[] mStops  = new long[16];
+        int    mSize   = 0;
+
+        @Override
+        public boolean visit( long startMicros, long stopMicros ) {
+            if( mSize == mStarts.length ) {
+                mStarts = Arrays.copyOf( mStarts, mSize * 2 );
+                mStops  = Arrays.copyOf( mStops, mSize * 2 );
+            }
+            mStarts[mSize] = startMicros;
+            mStops[mSize]  = stopMicros;
+            mSize++;
+            return true;
+        }
+    }
+
+
+    private TimeSetCodec() {}
+
+}
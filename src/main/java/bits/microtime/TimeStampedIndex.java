@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.util.*;
+
+
+/**
+ * List of TimeStamped items kept in {@link TimeStamped#START_TIME_ORDER}. Start times are
+ * copied into a parallel primitive array, so lookups are binary searches over
+ * {@code long} values with no comparator or interface calls.
+ * <p>
+ * Adding an item that starts at or after the last item is amortized O(1), which makes
+ * the index suitable for logs recorded in order. Out-of-order adds are inserted
+ * after any items with the same start time, shifting later items. Items with equal
+ * start times therefore remain in the order they were added.
+ * <p>
+ * {@link #range(long, long)}, {@link #headList(long)} and {@link #tailList(long)} return live
+ * views backed by this index.
+ *
+ * @author Philip DeCamp
+ */
+public class TimeStampedIndex<T extends TimeStamped> extends AbstractList<T> implements RandomAccess {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private TimeStamped[] mItems;
+    private long[]        mTimes;
+    private int           mSize = 0;
+
+
+    public TimeStampedIndex() {
+        this( DEFAULT_CAPACITY );
+    }
+
+
+    public TimeStampedIndex( int initialCapacity ) {
+        initialCapacity = Math.max( 1, initialCapacity );
+        mItems = new TimeStamped[initialCapacity];
+        mTimes = new long[initialCapacity];
+    }
+
+
+    public TimeStampedIndex( Collection<? extends T> items ) {
+        this( items.size() );
+        addAll( items );
+    }
+
+    /**
+     * Adds {@code item} in start time order.
+     *
+     * @return true
+     */
+    @Override
+    public boolean add( T item ) {
+        long t = item.startMicros();
+        int idx = mSize == 0 || t >= mTimes[mSize - 1] ? mSize : firstIndexAfter( t );
+
+        if( mSize == mItems.length ) {
+            int cap = mSize * 2;
+            mItems = Arrays.copyOf( mItems, cap );
+            mTimes = Arrays.copyOf( mTimes, cap );
+        }
+
+        if( idx < mSize ) {
+            System.arraycopy( mItems, idx, mItems, idx + 1, mSize - idx );
+            System.arraycopy( mTimes, idx, mTimes, idx + 1, mSize - idx );
+        }
+
+        mItems[idx] = item;
+        mTimes[idx] = t;
+        mSize++;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * @return item at {@code index} in start time order.
+     */
+    @Override
+    @SuppressWarnings( "unchecked" )
+    public T get( int index ) {
+        checkIndex( index );
+        return (T)mItems[index];
+    }
+
+
+    @Override
+    @SuppressWarnings( "unchecked" )
+    public T remove( int index ) {
+        checkIndex( index );
+        T ret = (T)mItems[index];
+        int len = mSize - index - 1;
+        System.arraycopy( mItems, index + 1, mItems, index, len );
+        System.arraycopy( mTimes, index + 1, mTimes, index, len );
+        mItems[--mSize] = null;
+        modCount++;
+        return ret;
+    }
+
+
+    @Override
+    public void clear() {
+        Arrays.fill( mItems, 0, mSize, null );
+        mSize = 0;
+        modCount++;
+    }
+
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return start time of item at {@code index}.
+     */
+    public long startMicrosAt( int index ) {
+        checkIndex( index );
+        return mTimes[index];
+    }
+
+    /**
+     * @return index of first item starting at or after {@code t}, or {@code size()} if none.
+     */
+    public int ceilingIndex( long t ) {
+        int lo = 0;
+        int hi = mSize;
+        while( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if( mTimes[mid] < t ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return index of last item starting at or before {@code t}, or -1 if none.
+     */
+    public int floorIndex( long t ) {
+        return firstIndexAfter( t ) - 1;
+    }
+
+    /**
+     * @return index of item with start time closest to {@code t}, or -1 if empty.
+     *         Ties go to the earlier item.
+     */
+    public int nearestIndex( long t ) {
+        int hi = ceilingIndex( t );
+        if( hi == 0 ) {
+            return mSize == 0 ? -1 : 0;
+        }
+        if( hi == mSize ) {
+            return mSize - 1;
+        }
+        // Distances are non-negative but may exceed Long.MAX_VALUE, so compare as unsigned.
+        long before = t - mTimes[hi - 1] + Long.MIN_VALUE;
+        long after  = mTimes[hi] - t + Long.MIN_VALUE;
+        return before <= after ? hi - 1 : hi;
+    }
+
+    /**
+     * @return last item starting at or before {@code t}, or null if none.
+     */
+    public T floor( long t ) {
+        int idx = floorIndex( t );
+        return idx < 0 ? null : get( idx );
+    }
+
+    /**
+     * @return first item starting at or after {@code t}, or null if none.
+     */
+    public T ceiling( long t ) {
+        int idx = ceilingIndex( t );
+        return idx >= mSize ? null : get( idx );
+    }
+
+    /**
+     * @return item with start time closest to {@code t}, or null if empty.
+     */
+    public T nearest( long t ) {
+        int idx = nearestIndex( t );
+        return idx < 0 ? null : get( idx );
+    }
+
+    /**
+     * @return live view of items starting in [startMicros, stopMicros).
+     */
+    public List<T> range( long startMicros, long stopMicros ) {
+        int lo = ceilingIndex( startMicros );
+        int hi = stopMicros <= startMicros ? lo : ceilingIndex( stopMicros );
+        return subList( lo, hi );
+    }
+
+    /**
+     * @return live view of items starting before {@code stopMicros}.
+     */
+    public List<T> headList( long stopMicros ) {
+        return subList( 0, ceilingIndex( stopMicros ) );
+    }
+
+    /**
+     * @return live view of items starting at or after {@code startMicros}.
+     */
+    public List<T> tailList( long startMicros ) {
+        return subList( ceilingIndex( startMicros ), mSize );
+    }
+
+
+
+    /**
+     * @return index of first item starting after t, or mSize if none.
+     */
+    private int firstIndexAfter( long t ) {
+        int lo = 0;
+        int hi = mSize;
+        while( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if( mTimes[mid] <= t ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+
+    private void checkIndex( int index ) {
+        if( index < 0 || index >= mSize ) {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + mSize );
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package bits.microtime;
+
+import java.util.*;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author Philip DeCamp
+ */
+public class CompactTimeSetTest {
+
+    @Test
+    public void testAddRemove() {
+        CompactTimeSet set = new CompactTimeSet( 1 );
+
+        assertTrue( set.add( 100, 200 ) );
+        assertTrue( set.add( 300, 400 ) );
+        assertTrue( set.add( 500, 600 ) );
+        assertFalse( set.add( 120, 180 ) );
+        assertEquals( 3, set.size() );
+
+        // Touching blocks merge.
+        assertTrue( set.add( 200, 300 ) );
+        assertEquals( 2, set.size() );
+        assertEquals( new TimeBlock( 100, 400 ), set.blockContaining( 250 ) );
+
+        // Removal splits.
+        assertTrue( set.remove( 150, 350 ) );
+        assertEquals( 3, set.size() );
+        assertTrue( set.contains( 149 ) );
+        assertFalse( set.contains( 150 ) );
+        assertFalse( set.contains( 349 ) );
+        assertTrue( set.contains( 350 ) );
+        assertEquals( new TimeBlock( 100, 600 ), set.range() );
+
+        assertFalse( set.remove( 400, 500 ) );
+        assertTrue( set.remove( 0, 1000 ) );
+        assertTrue( set.isEmpty() );
+        assertNull( set.range() );
+    }
+
+    @Test
+    public void testIntersect() {
+        CompactTimeSet set = new CompactTimeSet();
+        set.add( 100, 200 );
+        set.add( 300, 400 );
+        set.add( 500, 600 );
+
+        List<TimeBlock> list = set.intersect( 150, 550 );
+        assertEquals( Arrays.asList( new TimeBlock( 150, 200 ),
+                                     new TimeBlock( 300, 400 ),
+                                     new TimeBlock( 500, 550 ) ), list );
+
+        assertEquals( 0, set.intersect( 0, 50 ).size() );
+        assertEquals( Arrays.asList( new TimeBlock( 550, 560 ) ), set.intersect( 550, 560 ) );
+
+        assertEquals( 0, set.intersect( 150, 150, new long[4], 0 ) );
+        assertTrue( set.intersect( 150, 150, new RangeVisitor() {
+            @Override
+            public boolean visit( long startMicros, long stopMicros ) {
+                fail();
+                return false;
+            }
+        } ) );
+    }
+
+    @Test
+    public void testSubtractFrom() {
+        CompactTimeSet set = new CompactTimeSet();
+        set.add( 100, 200 );
+        set.add( 300, 400 );
+        set.add( 500, 600 );
+
+        assertEquals( Arrays.asList( new TimeBlock( 50, 100 ),
+                                     new TimeBlock( 200, 300 ),
+                                     new TimeBlock( 400, 500 ),
+                                     new TimeBlock( 600, 650 ) ),
+                      set.subtractFrom( 50, 650 ) );
+
+        assertEquals( 0, set.subtractFrom( 120, 160 ).size() );
+        assertEquals( Arrays.asList( new TimeBlock( 1000, 2000 ) ), set.subtractFrom( 1000, 2000 ) );
+    }
+
+    @Test
+    public void testMatchesTimeSet() {
+        Random rand = new Random( 0 );
+        TimeSet expect = new TimeSet();
+        CompactTimeSet set = new CompactTimeSet();
+
+        for( int i = 0; i < 5000; i++ ) {
+            long a = rand.nextInt( 10000 );
+            long b = a + rand.nextInt( 200 );
+            if( rand.nextInt( 3 ) == 0 ) {
+                expect.remove( a, b );
+                set.remove( a, b );
+            } else {
+                expect.add( a, b );
+                set.add( a, b );
+            }
+
+            assertEquals( expect.size(), set.size() );
+            long t = rand.nextInt( 10000 );
+            assertEquals( expect.contains( t ), set.contains( t ) );
+            // Includes empty and inverted ranges.
+            long u = t + rand.nextInt( 100 ) - 20;
+            assertEquals( expect.contains( t, u ), set.contains( t, u ) );
+        }
+
+        assertArrayEquals( expect.toArray(), set.toArray() );
+        assertEquals( expect.subtractFrom( 0, 10000 ), set.subtractFrom( 0, 10000 ) );
+
+        // Empty ranges at block edges.
+        TimeBlock first = set.iterator().next();
+        long s = first.startMicros();
+        assertEquals( expect.contains( s, s ), set.contains( s, s ) );
+        assertEquals( expect.contains( s + 1, s + 1 ), set.contains( s + 1, s + 1 ) );
+        assertEquals( expect.contains( first.stopMicros(), first.stopMicros() ), set.contains( first.stopMicros(), first.stopMicros() ) );
+
+        Iterator<TimeBlock> iter = set.iterator();
+        while( iter.hasNext() ) {
+            iter.next();
+            iter.remove();
+        }
+        assertTrue( set.isEmpty() );
+    }
+
+}
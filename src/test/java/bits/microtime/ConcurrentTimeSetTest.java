@@ -0,0 +1,89 @@
+package bits.microtime;
+
+import java.util.*;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author Philip DeCamp
+ */
+public class ConcurrentTimeSetTest {
+
+    @Test
+    public void testBatch() {
+        ConcurrentTimeSet set = new ConcurrentTimeSet();
+        set.add( 100, 200 );
+
+        ConcurrentTimeSet.Batch batch = new ConcurrentTimeSet.Batch();
+        batch.add( 300, 400 ).add( 500, 600 ).remove( 150, 350 );
+        assertTrue( set.apply( batch ) );
+
+        assertArrayEquals( new TimeBlock[]{ new TimeBlock( 100, 150 ),
+                                            new TimeBlock( 350, 400 ),
+                                            new TimeBlock( 500, 600 ) },
+                           set.toArray() );
+
+        batch.clear();
+        batch.add( 120, 130 );
+        assertFalse( set.apply( batch ) );
+    }
+
+    @Test
+    public void testIterateWhileModifying() {
+        ConcurrentTimeSet set = new ConcurrentTimeSet();
+        for( int i = 0; i < 10; i++ ) {
+            set.add( i * 100, i * 100 + 50 );
+        }
+
+        int count = 0;
+        for( TimeBlock tb : set ) {
+            set.add( tb.stopMicros() + 1000, tb.stopMicros() + 1010 );
+            count++;
+        }
+
+        assertEquals( 10, count );
+        assertEquals( 20, set.size() );
+
+        Iterator<TimeBlock> iter = set.iterator();
+        while( iter.hasNext() ) {
+            if( iter.next().startMicros() >= 1000 ) {
+                iter.remove();
+            }
+        }
+
+        assertEquals( 10, set.size() );
+    }
+
+    @Test
+    public void testMatchesSnapshot() {
+        Random rand = new Random( 6 );
+        ConcurrentTimeSet set = new ConcurrentTimeSet();
+        for( int i = 0; i < 2000; i++ ) {
+            long a = rand.nextInt( 100000 );
+            long b = a + 1 + rand.nextInt( 100 );
+            if( rand.nextInt( 4 ) == 0 ) {
+                set.remove( a, b );
+            } else {
+                set.add( a, b );
+            }
+        }
+
+        CompactTimeSet snap = set.snapshot();
+        assertEquals( snap.size(), set.size() );
+        assertArrayEquals( snap.toArray(), set.toArray() );
+
+        long[] expect = new long[64];
+        long[] actual = new long[64];
+        for( int i = 0; i < 200; i++ ) {
+            long a = rand.nextInt( 100000 );
+            long b = a + rand.nextInt( 2000 );
+            assertEquals( snap.intersect( a, b, expect, 0 ), set.intersect( a, b, actual, 0 ) );
+            assertArrayEquals( expect, actual );
+            assertEquals( snap.subtractFrom( a, b, expect, 0 ), set.subtractFrom( a, b, actual, 0 ) );
+            assertArrayEquals( expect, actual );
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package bits.microtime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author Philip DeCamp
+ */
+public class MappedTimeSetTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Random rand = new Random( 4 );
+        TimeSet set = new TimeSet();
+        for( int i = 0; i < 3000; i++ ) {
+            long a = rand.nextInt( 1000000 );
+            set.add( a, a + 1 + rand.nextInt( 300 ) );
+        }
+
+        for( int stride : new int[]{ 0, 1, 7, 256 } ) {
+            File file = File.createTempFile( "MappedTimeSetTest", ".tset" );
+            file.deleteOnExit();
+            MappedTimeSet.write( set, file, stride );
+            MappedTimeSet mapped = MappedTimeSet.open( file );
+
+            assertEquals( set.size(), mapped.size() );
+            assertArrayEquals( set.toArray(), mapped.toArray() );
+            assertEquals( set.range(), mapped.range() );
+
+            for( int i = 0; i < 2000; i++ ) {
+                long t = rand.nextInt( 1100000 ) - 50000;
+                assertEquals( set.contains( t ), mapped.contains( t ) );
+                assertEquals( set.contains( t, t ), mapped.contains( t, t ) );
+                assertEquals( set.contains( t, t + 100 ), mapped.contains( t, t + 100 ) );
+                assertEquals( set.blockContaining( t ), mapped.blockContaining( t ) );
+                assertEquals( set.subtractFrom( t, t + 5000 ), mapped.subtractFrom( t, t + 5000 ) );
+                assertEquals( set.intersect( t, t + 5000, new long[0], 0 ), mapped.intersect( t, t + 5000 ).size() );
+            }
+
+            assertArrayEquals( set.toArray(), mapped.toTimeSet().toArray() );
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        File file = File.createTempFile( "MappedTimeSetTest", ".tset" );
+        file.deleteOnExit();
+        MappedTimeSet.write( new TimeSet(), file );
+        MappedTimeSet mapped = MappedTimeSet.open( file );
+        assertTrue( mapped.isEmpty() );
+        assertFalse( mapped.contains( 0 ) );
+        assertNull( mapped.range() );
+    }
+
+    @Test
+    public void testCorruptIndexHeader() throws Exception {
+        TimeSet set = new TimeSet();
+        for( int i = 0; i < 100; i++ ) {
+            set.add( i * 10, i * 10 + 5 );
+        }
+
+        // { stride, indexCount } pairs that disagree with a block count of 100.
+        int[][] headers = { { 7, 0 }, { 7, 14 }, { 0, 3 } };
+        for( int[] h : headers ) {
+            File file = File.createTempFile( "MappedTimeSetTest", ".tset" );
+            file.deleteOnExit();
+            MappedTimeSet.write( set, file, 7 );
+
+            RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+            try {
+                raf.seek( 16 );
+                raf.writeInt( Integer.reverseBytes( h[0] ) );
+                raf.writeInt( Integer.reverseBytes( h[1] ) );
+            } finally {
+                raf.close();
+            }
+
+            try {
+                MappedTimeSet.open( file );
+                fail();
+            } catch( IOException ignored ) {}
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+package bits.microtime;
+
+import java.util.*;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author Philip DeCamp
+ */
+public class PersistentTimeSetTest {
+
+    @Test
+    public void testSnapshot() {
+        PersistentTimeSet set = new PersistentTimeSet();
+        set.add( 100, 200 );
+        set.add( 300, 400 );
+
+        PersistentTimeSet snap = set.snapshot();
+        Iterator<TimeBlock> iter = set.iterator();
+
+        set.add( 150, 350 );
+        set.remove( 0, 120 );
+
+        assertArrayEquals( new TimeBlock[]{ new TimeBlock( 120, 400 ) }, set.toArray() );
+        assertArrayEquals( new TimeBlock[]{ new TimeBlock( 100, 200 ), new TimeBlock( 300, 400 ) }, snap.toArray() );
+
+        // Live iterator continues over the version it started on.
+        assertEquals( new TimeBlock( 100, 200 ), iter.next() );
+        assertEquals( new TimeBlock( 300, 400 ), iter.next() );
+        assertFalse( iter.hasNext() );
+
+        snap.clear();
+        assertEquals( 1, set.size() );
+    }
+
+    @Test
+    public void testMatchesTimeSet() {
+        Random rand = new Random( 3 );
+        TimeSet expect = new TimeSet();
+        PersistentTimeSet set = new PersistentTimeSet();
+        List<PersistentTimeSet> versions = new ArrayList<PersistentTimeSet>();
+        List<TimeBlock[]> expectVersions = new ArrayList<TimeBlock[]>();
+
+        for( int i = 0; i < 5000; i++ ) {
+            long a = rand.nextInt( 10000 );
+            long b = a + rand.nextInt( 200 );
+            if( rand.nextInt( 3 ) == 0 ) {
+                expect.remove( a, b );
+                set.remove( a, b );
+            } else {
+                expect.add( a, b );
+                set.add( a, b );
+            }
+
+            assertEquals( expect.size(), set.size() );
+            long t = rand.nextInt( 10000 );
+            assertEquals( expect.contains( t ), set.contains( t ) );
+            assertEquals( expect.blockContaining( t ), set.blockContaining( t ) );
+            long u = t + rand.nextInt( 100 ) - 20;
+            assertEquals( expect.contains( t, u ), set.contains( t, u ) );
+
+            if( i % 500 == 0 ) {
+                versions.add( set.snapshot() );
+                expectVersions.add( expect.toArray() );
+            }
+        }
+
+        assertArrayEquals( expect.toArray(), set.toArray() );
+        assertEquals( expect.intersect( 2000, 8000 ), set.intersect( 2000, 8000 ) );
+        assertEquals( expect.subtractFrom( 2000, 8000 ), set.subtractFrom( 2000, 8000 ) );
+        assertEquals( expect.range(), set.range() );
+
+        for( int i = 0; i < versions.size(); i++ ) {
+            assertArrayEquals( expectVersions.get( i ), versions.get( i ).toArray() );
+        }
+
+        assertArrayEquals( expect.toArray(), PersistentTimeSet.copyOf( expect ).toArray() );
+    }
+
+
+    @Test
+    public void testDiff() {
+        Random rand = new Random( 15 );
+        PersistentTimeSet set = new PersistentTimeSet();
+        for( int i = 0; i < 5000; i++ ) {
+            long a = rand.nextInt( 1000000 );
+            set.add( a, a + 1 + rand.nextInt( 100 ) );
+        }
+
+        for( int trial = 0; trial < 100; trial++ ) {
+            PersistentTimeSet snap = set.snapshot();
+            for( int i = rand.nextInt( 4 ); i >= 0; i-- ) {
+                long a = rand.nextInt( 1000000 );
+                if( rand.nextBoolean() ) {
+                    set.add( a, a + 1 + rand.nextInt( 300 ) );
+                } else {
+                    set.remove( a, a + 1 + rand.nextInt( 300 ) );
+                }
+            }
+            assertDiff( snap, set );
+            assertDiff( set, snap );
+        }
+
+        PersistentTimeSet other = new PersistentTimeSet();
+        for( int i = 0; i < 1000; i++ ) {
+            long a = rand.nextInt( 1000000 );
+            other.add( a, a + 1 + rand.nextInt( 1000 ) );
+        }
+        assertDiff( set, other );
+        assertDiff( other, new PersistentTimeSet() );
+        assertDiff( set, set );
+    }
+
+
+    private static void assertDiff( PersistentTimeSet a, PersistentTimeSet b ) {
+        final TimeSet added   = new TimeSet();
+        final TimeSet removed = new TimeSet();
+        final long[] last = { Long.MIN_VALUE };
+
+        assertTrue( a.diff( b, new DiffVisitor() {
+            @Override
+            public boolean added( long startMicros, long stopMicros ) {
+                assertTrue( startMicros >= last[0] && startMicros < stopMicros );
+                last[0] = stopMicros;
+                added.add( startMicros, stopMicros );
+                return true;
+            }
+
+            @Override
+            public boolean removed( long startMicros, long stopMicros ) {
+                assertTrue( startMicros >= last[0] && startMicros < stopMicros );
+                last[0] = stopMicros;
+                removed.add( startMicros, stopMicros );
+                return true;
+            }
+        } ) );
+
+        TimeSet ta = TimeSet.fromBlocks( a );
+        TimeSet tb = TimeSet.fromBlocks( b );
+        assertEquals( TimeSet.difference( tb, ta ), added );
+        assertEquals( TimeSet.difference( ta, tb ), removed );
+    }
+
+}
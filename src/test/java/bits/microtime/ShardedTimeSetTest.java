@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.util.*;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author Philip DeCamp
+ */
+public class ShardedTimeSetTest {
+
+    @Test
+    public void testAgainstTimeSet() {
+        Random rand = new Random( 21 );
+        ShardedTimeSet sharded = new ShardedTimeSet( 1000, 250 );
+        TimeSet expect = new TimeSet();
+
+        for( int i = 0; i < 3000; i++ ) {
+            long a = rand.nextInt( 40000 ) - 20000;
+            long b = a + 1 + rand.nextInt( i % 20 == 0 ? 5000 : 400 );
+            if( rand.nextInt( 3 ) == 0 ) {
+                sharded.remove( a, b );
+                expect.remove( a, b );
+            } else {
+                sharded.add( a, b );
+                expect.add( a, b );
+            }
+
+            if( i == 1500 ) {
+                assertTrue( sharded.freezeBefore( 0 ) > 0 );
+            }
+            if( i % 100 == 0 ) {
+                assertSame( expect, sharded, rand );
+            }
+        }
+
+        sharded.clear();
+        assertTrue( sharded.isEmpty() );
+        assertEquals( 0, sharded.shardCount() );
+        assertNull( sharded.range() );
+    }
+
+
+    @Test
+    public void testStitching() {
+        ShardedTimeSet set = new ShardedTimeSet( 100 );
+        set.add( -150, 350 );
+        assertEquals( 6, set.shardCount() );
+        assertEquals( Arrays.asList( new TimeBlock( -150, 350 ) ), set.intersect( -1000, 1000 ) );
+        assertTrue( set.contains( -150, 350 ) );
+        assertFalse( set.contains( -151, 350 ) );
+
+        set.remove( 100, 200 );
+        assertEquals( 5, set.shardCount() );
+        assertEquals( Arrays.asList( new TimeBlock( -150, 100 ), new TimeBlock( 200, 350 ) ), set.intersect( -1000, 1000 ) );
+        assertEquals( Arrays.asList( new TimeBlock( 100, 200 ) ), set.subtractFrom( -150, 350 ) );
+
+        set.freezeBefore( 1000 );
+        set.add( 100, 200 );
+        assertEquals( Arrays.asList( new TimeBlock( 50, 300 ) ), set.intersect( 50, 300 ) );
+        assertEquals( 500, set.coveredMicros() );
+    }
+
+
+    @Test
+    public void testUnboundedRanges() {
+        ShardedTimeSet set = new ShardedTimeSet( 1000, 250 );
+        try {
+            set.add( 0, Long.MAX_VALUE );
+            fail();
+        } catch( IllegalArgumentException ex ) {}
+        assertEquals( 0, set.shardCount() );
+
+        // Blocks in the first and last epochs, which are clipped at the long limits.
+        set.add( Long.MAX_VALUE - 1500, Long.MAX_VALUE );
+        set.add( Long.MIN_VALUE, Long.MIN_VALUE + 1500 );
+        assertEquals( 5, set.shardCount() );
+        assertEquals( Arrays.asList( new TimeBlock( Long.MIN_VALUE, Long.MIN_VALUE + 1500 ),
+                                     new TimeBlock( Long.MAX_VALUE - 1500, Long.MAX_VALUE ) ),
+                      set.intersect( Long.MIN_VALUE, Long.MAX_VALUE ) );
+        assertEquals( 3000, set.coveredMicros() );
+        assertTrue( set.contains( Long.MAX_VALUE - 1 ) );
+        assertEquals( 5, set.freezeBefore( Long.MAX_VALUE ) );
+
+        assertTrue( set.remove( Long.MIN_VALUE, Long.MAX_VALUE ) );
+        assertTrue( set.isEmpty() );
+        assertEquals( 0, set.shardCount() );
+    }
+
+
+    @Test
+    public void testIterator() {
+        ShardedTimeSet set = new ShardedTimeSet( 100 );
+        set.add( -150, 350 );
+        set.add( 400, 410 );
+        set.add( 500, 600 );
+        set.freezeBefore( 200 );
+
+        List<TimeBlock> blocks = new ArrayList<TimeBlock>();
+        for( TimeBlock b : set ) {
+            blocks.add( b );
+        }
+        assertEquals( set.intersect( Long.MIN_VALUE, Long.MAX_VALUE ), blocks );
+        assertEquals( 3, blocks.size() );
+
+        Iterator<TimeBlock> iter = set.iterator();
+        iter.next();
+        iter.next();
+        iter.remove();
+        assertEquals( new TimeBlock( 500, 600 ), iter.next() );
+        assertFalse( iter.hasNext() );
+        assertEquals( Arrays.asList( new TimeBlock( -150, 350 ), new TimeBlock( 500, 600 ) ),
+                      set.intersect( Long.MIN_VALUE, Long.MAX_VALUE ) );
+
+        // Removing uncovered time from a frozen shard must leave it untouched.
+        assertEquals( 2, set.freezeBefore( 400 ) );
+        assertFalse( set.remove( 360, 390 ) );
+        assertEquals( 0, set.freezeBefore( 400 ) );
+    }
+
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final int threads = 4;
+        final ShardedTimeSet sharded = new ShardedTimeSet( 500 );
+        final TimeSet[] expects = new TimeSet[threads];
+        Thread[] workers = new Thread[threads];
+
+        for( int t = 0; t < threads; t++ ) {
+            final int id = t;
+            expects[t] = new TimeSet();
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    // Each writer owns a disjoint range, with blocks that cross epoch boundaries.
+                    Random rand = new Random( id );
+                    long base = id * 100000L;
+                    for( int i = 0; i < 5000; i++ ) {
+                        long a = base + rand.nextInt( 99000 );
+                        long b = a + 1 + rand.nextInt( 1000 );
+                        if( rand.nextInt( 4 ) == 0 ) {
+                            sharded.remove( a, b );
+                            expects[id].remove( a, b );
+                        } else {
+                            sharded.add( a, b );
+                            expects[id].add( a, b );
+                        }
+                        if( i % 1000 == 0 ) {
+                            sharded.freezeBefore( base + rand.nextInt( 100000 ) );
+                        }
+                    }
+                }
+            };
+            workers[t].start();
+        }
+
+        for( Thread w : workers ) {
+            w.join();
+        }
+
+        TimeSet expect = new TimeSet();
+        for( TimeSet s : expects ) {
+            expect.addAll( s );
+        }
+        assertSame( expect, sharded, new Random( 5 ) );
+    }
+
+
+    private static void assertSame( TimeSet expect, ShardedTimeSet sharded, Random rand ) {
+        assertEquals( expect, sharded.toTimeSet() );
+        assertEquals( expect.coveredMicros(), sharded.coveredMicros() );
+        assertEquals( expect.range(), sharded.range() );
+        assertEquals( expect.isEmpty(), sharded.isEmpty() );
+
+        TimeBlock range = expect.range();
+        if( range == null ) {
+            return;
+        }
+        for( int i = 0; i < 100; i++ ) {
+            long a = range.startMicros() - 100 + (long)( rand.nextDouble() * ( range.stopMicros() - range.startMicros() + 200 ) );
+            long b = a + 1 + rand.nextInt( 3000 );
+            long[] arr = new long[4096];
+            int n = expect.intersect( a, b, arr, 0 );
+            List<TimeBlock> blocks = new ArrayList<TimeBlock>();
+            for( int j = 0; j < n; j++ ) {
+                blocks.add( new TimeBlock( arr[j * 2], arr[j * 2 + 1] ) );
+            }
+            assertEquals( blocks, sharded.intersect( a, b ) );
+            assertEquals( expect.subtractFrom( a, b ), sharded.subtractFrom( a, b ) );
+            assertEquals( expect.contains( a ), sharded.contains( a ) );
+            assertEquals( expect.contains( a, b ), sharded.contains( a, b ) );
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.util.*;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author Philip DeCamp
+ */
+public class TimeBitmapTest {
+
+    @Test
+    public void testAgainstTimeSet() {
+        Random rand = new Random( 3 );
+        TimeBitmap bitmap = new TimeBitmap( 1 );
+        TimeSet set = new TimeSet();
+
+        // Dense, fragmented coverage to force bitmap chunks.
+        for( int i = 0; i < 3000; i++ ) {
+            assertEquals( set.add( i * 3, i * 3 + 2 ), bitmap.add( i * 3, i * 3 + 2 ) );
+        }
+
+        for( int i = 0; i < 4000; i++ ) {
+            long a = rand.nextInt( 300000 ) - 20000;
+            long b = a + 1 + rand.nextInt( i % 10 == 0 ? 70000 : 50 );
+            if( rand.nextInt( 3 ) == 0 ) {
+                set.remove( a, b );
+                bitmap.remove( a, b );
+            } else {
+                set.add( a, b );
+                bitmap.add( a, b );
+            }
+
+            if( i % 500 == 0 ) {
+                bitmap.optimize();
+                assertEquivalent( set, bitmap, rand );
+            }
+        }
+
+        assertEquivalent( set, bitmap, rand );
+        bitmap.clear();
+        assertTrue( bitmap.isEmpty() );
+        assertNull( bitmap.range() );
+    }
+
+
+    @Test
+    public void testQuantization() {
+        TimeBitmap bitmap = new TimeBitmap( 10, 5 );
+        bitmap.add( 17, 23 );
+        assertEquals( Arrays.asList( new TimeBlock( 15, 25 ) ), bitmap.intersect( 0, 100 ) );
+        assertTrue( bitmap.contains( 15 ) );
+        assertFalse( bitmap.contains( 25 ) );
+        assertEquals( 10, bitmap.coveredMicros() );
+
+        bitmap.add( -31, -30 );
+        assertEquals( new TimeBlock( -35, 25 ), bitmap.range() );
+        assertTrue( bitmap.contains( -35 ) );
+        assertFalse( bitmap.contains( -36 ) );
+
+        // Removal also rounds outward.
+        bitmap.remove( 24, 25 );
+        assertEquals( Arrays.asList( new TimeBlock( -35, -25 ) ), bitmap.intersect( -100, 100 ) );
+        assertEquals( Arrays.asList( new TimeBlock( -25, 25 ) ), bitmap.subtractFrom( -35, 25 ) );
+    }
+
+
+    @Test
+    public void testSetAlgebra() {
+        Random rand = new Random( 4 );
+        for( int trial = 0; trial < 20; trial++ ) {
+            TimeSet sa = new TimeSet();
+            TimeSet sb = new TimeSet();
+            for( int i = 0; i < 2000; i++ ) {
+                long a = rand.nextInt( 400000 );
+                sa.add( a, a + 1 + rand.nextInt( 40 ) );
+                a = rand.nextInt( 400000 );
+                sb.add( a, a + 1 + rand.nextInt( 40 ) );
+            }
+
+            TimeBitmap ba = TimeBitmap.fromTimeSet( sa, 1 );
+            TimeBitmap bb = TimeBitmap.fromTimeSet( sb, 1 );
+            assertEquals( TimeSet.union( sa, sb ), TimeBitmap.union( ba, bb ).toTimeSet() );
+            assertEquals( TimeSet.intersection( sa, sb ), TimeBitmap.intersection( ba, bb ).toTimeSet() );
+            assertEquals( TimeSet.difference( sa, sb ), TimeBitmap.difference( ba, bb ).toTimeSet() );
+            assertEquals( sa, ba.toTimeSet() );
+            assertFalse( ba.union( new TimeBitmap( 1 ) ) );
+        }
+
+        try {
+            new TimeBitmap( 1 ).union( new TimeBitmap( 2 ) );
+            fail();
+        } catch( IllegalArgumentException ignored ) {}
+    }
+
+
+    private static void assertEquivalent( TimeSet set, TimeBitmap bitmap, Random rand ) {
+        assertEquals( set, bitmap.toTimeSet() );
+        assertEquals( set.range(), bitmap.range() );
+        assertEquals( set.coveredMicros(), bitmap.coveredMicros() );
+
+        for( int i = 0; i < 200; i++ ) {
+            long a = rand.nextInt( 320000 ) - 30000;
+            long b = a + 1 + rand.nextInt( 2000 );
+            assertEquals( set.contains( a ), bitmap.contains( a ) );
+            assertEquals( set.contains( a, b ), bitmap.contains( a, b ) );
+            assertEquals( set.subtractFrom( a, b ), bitmap.subtractFrom( a, b ) );
+
+            List<TimeBlock> expect = new ArrayList<TimeBlock>();
+            long[] pairs = new long[4096];
+            int n = set.intersect( a, b, pairs, 0 );
+            for( int j = 0; j < n; j++ ) {
+                expect.add( new TimeBlock( pairs[j * 2], pairs[j * 2 + 1] ) );
+            }
+            assertEquals( expect, bitmap.intersect( a, b ) );
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.util.*;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author Philip DeCamp
+ */
+public class TimeCoverageMapTest {
+
+    private static final int DOMAIN = 2000;
+
+
+    @Test
+    public void testAgainstCounts() {
+        Random rand = new Random( 11 );
+        TimeCoverageMap map = new TimeCoverageMap();
+        int[] counts = new int[DOMAIN];
+        List<long[]> added = new ArrayList<long[]>();
+
+        for( int i = 0; i < 3000; i++ ) {
+            if( !added.isEmpty() && rand.nextInt( 3 ) == 0 ) {
+                long[] r = added.remove( rand.nextInt( added.size() ) );
+                assertTrue( map.remove( r[0], r[1] ) );
+                for( int t = (int)r[0]; t < r[1]; t++ ) {
+                    counts[t]--;
+                }
+            } else {
+                long a = rand.nextInt( DOMAIN - 100 );
+                long b = a + 1 + rand.nextInt( 99 );
+                assertTrue( map.add( a, b ) );
+                added.add( new long[]{ a, b } );
+                for( int t = (int)a; t < b; t++ ) {
+                    counts[t]++;
+                }
+            }
+
+            if( i % 100 == 0 ) {
+                assertMatches( map, counts, rand );
+            }
+        }
+
+        while( !added.isEmpty() ) {
+            long[] r = added.remove( added.size() - 1 );
+            map.remove( r[0], r[1] );
+        }
+        assertTrue( map.isEmpty() );
+        assertEquals( 0, map.boundaryCount() );
+    }
+
+
+    @Test
+    public void testAtLeast() {
+        TimeCoverageMap map = new TimeCoverageMap();
+        map.add( 0, 10 );
+        map.add( 5, 20 );
+        map.add( 8, 12 );
+        map.add( 20, 30 );
+
+        assertEquals( 3, map.countAt( 8 ) );
+        assertEquals( 3, map.maxDepth() );
+        assertEquals( 2, map.maxDepth( 10, 25 ) );
+        assertEquals( 1, map.maxDepth( 12, 20 ) );
+        assertEquals( TimeSet.fromArrays( new long[]{ 0 }, new long[]{ 30 } ), map.atLeast( 1 ) );
+        assertEquals( TimeSet.fromArrays( new long[]{ 5 }, new long[]{ 12 } ), map.atLeast( 2 ) );
+        assertEquals( TimeSet.fromArrays( new long[]{ 8 }, new long[]{ 10 } ), map.atLeast( 3 ) );
+        assertTrue( map.atLeast( 4 ).isEmpty() );
+    }
+
+
+    private static void assertMatches( TimeCoverageMap map, int[] counts, Random rand ) {
+        int max = 0;
+        for( int t = 0; t < DOMAIN; t++ ) {
+            assertEquals( counts[t], map.countAt( t ) );
+            max = Math.max( max, counts[t] );
+        }
+        assertEquals( 0, map.countAt( -1 ) );
+        assertEquals( max, map.maxDepth() );
+
+        for( int i = 0; i < 20; i++ ) {
+            int a = rand.nextInt( DOMAIN );
+            int b = a + 1 + rand.nextInt( DOMAIN - a );
+            int k = 1 + rand.nextInt( 4 );
+
+            int windowMax = 0;
+            TimeSet expect = new TimeSet();
+            for( int t = a; t < b; t++ ) {
+                windowMax = Math.max( windowMax, counts[t] );
+                if( counts[t] >= k ) {
+                    expect.add( t, t + 1 );
+                }
+            }
+            assertEquals( windowMax, map.maxDepth( a, b ) );
+
+            final List<TimeBlock> runs = new ArrayList<TimeBlock>();
+            map.atLeast( k, a, b, new RangeVisitor() {
+                @Override
+                public boolean visit( long startMicros, long stopMicros ) {
+                    runs.add( new TimeBlock( startMicros, stopMicros ) );
+                    return true;
+                }
+            } );
+            assertEquals( new ArrayList<TimeBlock>( expect ), runs );
+        }
+    }
+
+}
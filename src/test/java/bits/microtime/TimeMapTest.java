@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.util.*;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author Philip DeCamp
+ */
+public class TimeMapTest {
+
+    private static final int DOMAIN = 1000;
+
+
+    @Test
+    public void testAgainstArray() {
+        Random rand = new Random( 12 );
+        TimeMap<String> map = new TimeMap<String>();
+        IntTimeMap intMap = new IntTimeMap();
+        String[] expect = new String[DOMAIN];
+
+        for( int i = 0; i < 3000; i++ ) {
+            int a = rand.nextInt( DOMAIN - 60 );
+            int b = a + 1 + rand.nextInt( 60 );
+            int v = rand.nextInt( 4 );
+
+            if( v == 0 ) {
+                map.remove( a, b );
+                intMap.remove( a, b );
+                Arrays.fill( expect, a, b, null );
+            } else {
+                map.put( a, b, "v" + v );
+                intMap.put( a, b, v );
+                Arrays.fill( expect, a, b, "v" + v );
+            }
+
+            for( int t = 0; t < DOMAIN; t++ ) {
+                assertEquals( expect[t], map.get( t ) );
+                assertEquals( expect[t] == null ? -1 : expect[t].charAt( 1 ) - '0', intMap.get( t, -1 ) );
+            }
+
+            // Entries must be sorted, disjoint, and fully coalesced.
+            assertEquals( map.size(), intMap.size() );
+            for( int j = 0; j < map.size(); j++ ) {
+                assertTrue( map.startAt( j ) < map.stopAt( j ) );
+                if( j > 0 ) {
+                    assertTrue( map.stopAt( j - 1 ) <= map.startAt( j ) );
+                    assertFalse( map.stopAt( j - 1 ) == map.startAt( j ) &&
+                                 map.valueAt( j - 1 ).equals( map.valueAt( j ) ) );
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testSplitAndVisit() {
+        LongTimeMap map = new LongTimeMap();
+        map.put( 0, 100, 7L );
+        map.put( 40, 60, 8L );
+        assertEquals( 3, map.size() );
+        assertEquals( 7L, map.get( 39, 0L ) );
+        assertEquals( 8L, map.get( 40, 0L ) );
+        assertEquals( 7L, map.get( 60, 0L ) );
+
+        map.put( 40, 60, 7L );
+        assertEquals( 1, map.size() );
+
+        TimeMap<String> labels = new TimeMap<String>();
+        labels.put( 0, 10, "a" );
+        labels.put( 10, 20, "b" );
+        labels.put( 20, 30, "a" );
+        labels.put( 35, 40, "c" );
+
+        final List<String> visited = new ArrayList<String>();
+        labels.visit( 5, 36, new TimeMap.Visitor<String>() {
+            @Override
+            public boolean visit( long startMicros, long stopMicros, String value ) {
+                visited.add( startMicros + ":" + stopMicros + ":" + value );
+                return true;
+            }
+        } );
+        assertEquals( Arrays.asList( "5:10:a", "10:20:b", "20:30:a", "35:36:c" ), visited );
+        assertEquals( TimeSet.fromArrays( new long[]{ 0, 20 }, new long[]{ 10, 30 } ), labels.rangesOf( "a" ) );
+        assertEquals( TimeSet.fromArrays( new long[]{ 0, 35 }, new long[]{ 30, 40 } ), labels.coverage() );
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.util.*;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author Philip DeCamp
+ */
+public class TimeRangedIndexTest {
+
+    @Test
+    public void testAgainstScan() {
+        Random rand = new Random( 13 );
+        List<TimeBlock> items = new ArrayList<TimeBlock>();
+        for( int i = 0; i < 2000; i++ ) {
+            long a = rand.nextInt( 100000 );
+            long len = rand.nextInt( 10 ) == 0 ? 0 : rand.nextInt( i % 50 == 0 ? 20000 : 300 );
+            items.add( new TimeBlock( a, a + len ) );
+        }
+
+        TimeRangedIndex<TimeBlock> index = new TimeRangedIndex<TimeBlock>( items );
+        assertQueries( items, index, rand );
+
+        // In-order appends and removals.
+        Collections.sort( items, TimeRanged.START_STOP_TIME_ORDER );
+        index = new TimeRangedIndex<TimeBlock>();
+        for( TimeBlock b : items ) {
+            index.add( b );
+        }
+        for( int i = 0; i < 300; i++ ) {
+            TimeBlock b = items.remove( rand.nextInt( items.size() ) );
+            assertTrue( index.remove( b ) );
+        }
+        assertQueries( items, index, rand );
+        assertEquals( items, new ArrayList<TimeBlock>( index ) );
+    }
+
+
+    @Test
+    public void testEarlyStop() {
+        TimeRangedIndex<TimeBlock> index = new TimeRangedIndex<TimeBlock>();
+        for( int i = 0; i < 100; i++ ) {
+            index.add( new TimeBlock( i, 1000 ) );
+        }
+
+        final int[] count = { 0 };
+        assertFalse( index.intersect( 500, 600, new TimeRangedIndex.Visitor<TimeBlock>() {
+            @Override
+            public boolean visit( TimeBlock item ) {
+                return ++count[0] < 5;
+            }
+        } ) );
+        assertEquals( 5, count[0] );
+        assertEquals( 100, index.countIntersecting( 999, 1000 ) );
+        assertEquals( 0, index.countIntersecting( 1000, 2000 ) );
+    }
+
+
+    private static void assertQueries( List<TimeBlock> items, TimeRangedIndex<TimeBlock> index, Random rand ) {
+        for( int i = 0; i < 300; i++ ) {
+            long a = rand.nextInt( 110000 ) - 5000;
+            long b = a + rand.nextInt( 2000 ) + 1;
+
+            List<TimeBlock> expect = new ArrayList<TimeBlock>();
+            List<TimeBlock> expectStab = new ArrayList<TimeBlock>();
+            for( TimeBlock item : items ) {
+                long s = item.startMicros();
+                long e = item.stopMicros();
+                if( s < b && ( e > a || s == e && s >= a ) ) {
+                    expect.add( item );
+                }
+                if( s <= a && e > a || s == e && s == a ) {
+                    expectStab.add( item );
+                }
+            }
+            Collections.sort( expect, TimeRanged.START_STOP_TIME_ORDER );
+            Collections.sort( expectStab, TimeRanged.START_STOP_TIME_ORDER );
+
+            assertEquals( expect, index.intersect( a, b ) );
+            assertEquals( expect.size(), index.countIntersecting( a, b ) );
+            assertEquals( expectStab, index.stab( a ) );
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.io.*;
+import java.util.*;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author Philip DeCamp
+ */
+public class TimeSetCodecTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Random rand = new Random( 24 );
+        TimeSet set = new TimeSet();
+        for( int i = 0; i < 5000; i++ ) {
+            long a = rand.nextInt( 10000000 );
+            set.add( a, a + 1 + rand.nextInt( 1000 ) );
+        }
+
+        for( int frameSize : new int[]{ 1, 7, 256 } ) {
+            for( boolean bounds : new boolean[]{ false, true } ) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                TimeSetCodec.write( set, out, frameSize, bounds );
+                byte[] bytes = out.toByteArray();
+                assertEquals( set, TimeSetCodec.read( new ByteArrayInputStream( bytes ) ) );
+                if( frameSize == 256 ) {
+                    assertTrue( bytes.length < set.size() * 16 / 3 );
+                }
+
+                for( int i = 0; i < 50; i++ ) {
+                    long a = rand.nextInt( 10000000 );
+                    long b = a + rand.nextInt( 500000 );
+                    TimeSet expect = TimeSet.intersection( set, TimeSet.fromArrays( new long[]{ a }, new long[]{ b } ) );
+                    assertEquals( expect, TimeSetCodec.read( new ByteArrayInputStream( bytes ), a, b ) );
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testUnsortedAndExtremes() throws Exception {
+        List<TimeBlock> blocks = new ArrayList<TimeBlock>();
+        blocks.add( new TimeBlock( 100, 200 ) );
+        blocks.add( new TimeBlock( Long.MIN_VALUE, Long.MIN_VALUE + 5 ) );
+        blocks.add( new TimeBlock( Long.MAX_VALUE - 10, Long.MAX_VALUE ) );
+        blocks.add( new TimeBlock( 150, 300 ) );
+        blocks.add( new TimeBlock( -50, -40 ) );
+        blocks.add( new TimeBlock( 7, 7 ) );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TimeSetCodec.write( blocks, out, 2, true );
+        ByteArrayInputStream in = new ByteArrayInputStream( out.toByteArray() );
+        assertEquals( TimeSet.fromBlocks( blocks ), TimeSetCodec.read( in ) );
+        assertEquals( 0, in.available() );
+
+        final List<TimeBlock> visited = new ArrayList<TimeBlock>();
+        TimeSetCodec.read( new ByteArrayInputStream( out.toByteArray() ), 0, 1000, new RangeVisitor() {
+            @Override
+            public boolean visit( long startMicros, long stopMicros ) {
+                visited.add( new TimeBlock( startMicros, stopMicros ) );
+                return true;
+            }
+        } );
+        assertEquals( Arrays.asList( new TimeBlock( 100, 200 ), new TimeBlock( 150, 300 ) ), visited );
+
+        try {
+            TimeSetCodec.read( new ByteArrayInputStream( new byte[]{ 'T', 'S', 'E', 'T', 1, 0, 0 } ) );
+            fail();
+        } catch( IOException ignored ) {}
+    }
+
+}
@@ -1,6 +1,7 @@
 package bits.microtime;
 
 import java.util.*;
+import java.util.concurrent.*;
 import org.junit.*;
 
 import static org.junit.Assert.*;
@@ -114,4 +115,727 @@ public class TimeSetTest {
 
     }
 
+    @Test
+    public void testVisitors() {
+        TimeSet set = new TimeSet();
+        set.add( 100, 200 );
+        set.add( 300, 400 );
+        set.add( 500, 600 );
+
+        final List<TimeBlock> list = new ArrayList<TimeBlock>();
+        RangeVisitor collect = new RangeVisitor() {
+            @Override
+            public boolean visit( long startMicros, long stopMicros ) {
+                list.add( new TimeBlock( startMicros, stopMicros ) );
+                return list.size() < 2;
+            }
+        };
+
+        assertFalse( set.intersect( 150, 550, collect ) );
+        assertEquals( Arrays.asList( new TimeBlock( 150, 200 ), new TimeBlock( 300, 400 ) ), list );
+
+        list.clear();
+        assertTrue( set.subtractFrom( 150, 350, collect ) );
+        assertEquals( Arrays.asList( new TimeBlock( 200, 300 ) ), list );
+
+        long[] arr = new long[4];
+        assertEquals( 4, set.subtractFrom( 50, 650, arr, 0 ) );
+        assertArrayEquals( new long[]{ 50, 100, 200, 300 }, arr );
+
+        assertEquals( 2, set.intersect( 150, 350, arr, 0 ) );
+        assertArrayEquals( new long[]{ 150, 200, 300, 350 }, arr );
+
+        // Empty query ranges intersect nothing, even inside a block.
+        list.clear();
+        assertTrue( set.intersect( 150, 150, collect ) );
+        assertTrue( list.isEmpty() );
+        assertEquals( 0, set.intersect( 150, 150, arr, 0 ) );
+
+        arr = new long[7];
+        assertEquals( 3, set.toArray( arr, 1 ) );
+        assertArrayEquals( new long[]{ 0, 100, 200, 300, 400, 500, 600 }, arr );
+    }
+
+    @Test
+    public void testSetAlgebra() {
+        Random rand = new Random( 1 );
+
+        for( int trial = 0; trial < 50; trial++ ) {
+            TimeSet a = randomSet( rand, 200 );
+            TimeSet b = randomSet( rand, 200 );
+
+            TimeSet union = new TimeSet();
+            TimeSet inter = new TimeSet();
+            TimeSet diff  = new TimeSet();
+            TimeSet xor   = new TimeSet();
+
+            for( TimeBlock tb : a ) {
+                union.add( tb );
+                diff.add( tb );
+                xor.add( tb );
+                for( TimeBlock ib : b.intersect( tb ) ) {
+                    inter.add( ib );
+                }
+            }
+
+            for( TimeBlock tb : b ) {
+                union.add( tb );
+                diff.remove( tb );
+                xor.add( tb );
+            }
+
+            for( TimeBlock tb : inter ) {
+                xor.remove( tb );
+            }
+
+            assertArrayEquals( union.toArray(), TimeSet.union( a, b ).toArray() );
+            assertArrayEquals( inter.toArray(), TimeSet.intersection( a, b ).toArray() );
+            assertArrayEquals( diff.toArray(), TimeSet.difference( a, b ).toArray() );
+            assertArrayEquals( xor.toArray(), TimeSet.symmetricDifference( a, b ).toArray() );
+
+            TimeSet c = TimeSet.union( a, b );
+            assertFalse( c.union( a ) );
+            assertTrue( c.difference( b ) || b.isEmpty() );
+            assertArrayEquals( diff.toArray(), c.toArray() );
+            assertEquals( diff.size(), c.size() );
+            c.add( 5, 10 );
+            assertTrue( c.contains( 7 ) );
+        }
+    }
+
+
+    @Test
+    public void testCoverage() {
+        Random rand = new Random( 5 );
+        TimeSet set = new TimeSet();
+
+        for( int i = 0; i < 3000; i++ ) {
+            long a = rand.nextInt( 100000 );
+            long b = a + rand.nextInt( 500 );
+            if( rand.nextInt( 3 ) == 0 ) {
+                set.remove( a, b );
+            } else {
+                set.add( a, b );
+            }
+
+            long start = rand.nextInt( 100000 );
+            long stop  = start + rand.nextInt( 20000 );
+            long[] pairs = new long[set.size() * 2];
+            int n = set.intersect( start, stop, pairs, 0 );
+            long sum = 0;
+            for( int j = 0; j < n; j++ ) {
+                sum += pairs[j * 2 + 1] - pairs[j * 2];
+            }
+
+            assertEquals( sum, set.coveredMicros( start, stop ) );
+            assertEquals( n, set.countIn( start, stop ) );
+        }
+
+        long total = 0;
+        for( TimeBlock tb : set ) {
+            total += tb.spanMicros();
+        }
+        assertEquals( total, set.coveredMicros() );
+        assertEquals( total, TimeSet.fromBlocks( set ).coveredMicros() );
+    }
+
+    @Test
+    public void testGaps() {
+        TimeSet set = new TimeSet();
+        set.add( 100, 200 );
+        set.add( 210, 300 );
+        set.add( 400, 500 );
+        set.add( 550, 600 );
+
+        assertEquals( new TimeBlock( 50, 100 ), set.nextGapAfter( 50 ) );
+        assertEquals( new TimeBlock( 200, 210 ), set.nextGapAfter( 150 ) );
+        assertEquals( new TimeBlock( 600, Long.MAX_VALUE ), set.nextGapAfter( 580 ) );
+
+        assertEquals( new TimeBlock( 0, 100 ), set.firstGapOfAtLeast( 0, 60 ) );
+        assertEquals( new TimeBlock( 300, 400 ), set.firstGapOfAtLeast( 150, 60 ) );
+        assertEquals( new TimeBlock( 320, 400 ), set.firstGapOfAtLeast( 320, 60 ) );
+        assertEquals( new TimeBlock( 600, Long.MAX_VALUE ), set.firstGapOfAtLeast( 350, 60 ) );
+        assertEquals( new TimeBlock( 500, 550 ), set.firstGapOfAtLeast( 420, 50 ) );
+
+        assertEquals( new TimeBlock( 300, 400 ), set.largestGapIn( 50, 560 ) );
+        assertEquals( new TimeBlock( 500, 550 ), set.largestGapIn( 420, 580 ) );
+        assertEquals( new TimeBlock( 600, 1000 ), set.largestGapIn( 150, 1000 ) );
+        assertNull( set.largestGapIn( 120, 180 ) );
+
+        Random rand = new Random( 6 );
+        for( int i = 0; i < 2000; i++ ) {
+            long a = rand.nextInt( 100000 );
+            set.add( a, a + 1 + rand.nextInt( 100 ) );
+            if( rand.nextInt( 4 ) == 0 ) {
+                set.remove( a + 50, a + 80 );
+            }
+
+            long start = rand.nextInt( 100000 );
+            long stop  = start + rand.nextInt( 5000 );
+            long min   = rand.nextInt( 300 );
+
+            TimeBlock largest = null;
+            for( TimeBlock gap : set.subtractFrom( start, stop ) ) {
+                if( largest == null || gap.spanMicros() > largest.spanMicros() ) {
+                    largest = gap;
+                }
+            }
+            assertEquals( largest, set.largestGapIn( start, stop ) );
+
+            TimeBlock first = null;
+            for( TimeBlock gap : set.subtractFrom( start, Long.MAX_VALUE ) ) {
+                if( gap.spanMicros() >= min ) {
+                    first = gap;
+                    break;
+                }
+            }
+            assertEquals( first, set.firstGapOfAtLeast( start, min ) );
+        }
+    }
+
+    @Test
+    public void testNavigation() {
+        TimeSet set = new TimeSet();
+        set.add( 100, 200 );
+        set.add( 300, 400 );
+        set.add( 500, 600 );
+
+        assertEquals( new TimeBlock( 100, 200 ), set.first() );
+        assertEquals( new TimeBlock( 500, 600 ), set.last() );
+        assertEquals( new TimeBlock( 300, 400 ), set.floor( 300 ) );
+        assertEquals( new TimeBlock( 100, 200 ), set.lower( 300 ) );
+        assertEquals( new TimeBlock( 300, 400 ), set.ceiling( 300 ) );
+        assertEquals( new TimeBlock( 500, 600 ), set.higher( 300 ) );
+        assertNull( set.floor( 99 ) );
+        assertNull( set.higher( 500 ) );
+
+        List<TimeBlock> list = new ArrayList<TimeBlock>();
+        for( Iterator<TimeBlock> iter = set.descendingIterator(); iter.hasNext(); ) {
+            list.add( iter.next() );
+        }
+        assertEquals( Arrays.asList( new TimeBlock( 500, 600 ), new TimeBlock( 300, 400 ), new TimeBlock( 100, 200 ) ), list );
+
+        list.clear();
+        for( Iterator<TimeBlock> iter = set.descendingIterator( 150, 550 ); iter.hasNext(); ) {
+            list.add( iter.next() );
+        }
+        assertEquals( Arrays.asList( new TimeBlock( 500, 550 ), new TimeBlock( 300, 400 ), new TimeBlock( 150, 200 ) ), list );
+
+        Set<TimeBlock> sub = set.subSet( 150, 550 );
+        assertEquals( 3, sub.size() );
+        assertEquals( set.intersect( 150, 550 ), new ArrayList<TimeBlock>( sub ) );
+        assertTrue( sub.contains( new TimeBlock( 160, 170 ) ) );
+        assertFalse( sub.contains( new TimeBlock( 110, 170 ) ) );
+
+        // Views are live.
+        set.add( 700, 800 );
+        set.add( 520, 540 );
+        assertEquals( 3, sub.size() );
+        assertEquals( 2, set.tailSet( 550 ).size() );
+        assertEquals( 1, set.headSet( 300 ).size() );
+
+        // Iterator removal only removes the portion within view.
+        for( Iterator<TimeBlock> iter = sub.iterator(); iter.hasNext(); ) {
+            iter.next();
+            iter.remove();
+        }
+        assertTrue( sub.isEmpty() );
+        assertArrayEquals( new TimeBlock[]{ new TimeBlock( 100, 150 ), new TimeBlock( 550, 600 ), new TimeBlock( 700, 800 ) },
+                           set.toArray() );
+
+        try {
+            sub.add( new TimeBlock( 0, 200 ) );
+            fail();
+        } catch( IllegalArgumentException ignored ) {}
+    }
+
+    @Test
+    public void testSplitter() throws Exception {
+        Random rand = new Random( 7 );
+        final TimeSet set = new TimeSet();
+        for( int i = 0; i < 5000; i++ ) {
+            set.add( i * 100L, i * 100L + 1 + rand.nextInt( 99 ) );
+        }
+
+        // Sum covered time with fork-join tasks over recursively split Splitters.
+        @SuppressWarnings( "serial" )
+        class CoverageTask extends RecursiveTask<Long> {
+            final TimeSet.Splitter mSplit;
+
+            CoverageTask( TimeSet.Splitter split ) {
+                mSplit = split;
+            }
+
+            @Override
+            protected Long compute() {
+                TimeSet.Splitter prefix;
+                if( mSplit.estimateSize() > 100 && ( prefix = mSplit.trySplit() ) != null ) {
+                    CoverageTask a = new CoverageTask( prefix );
+                    a.fork();
+                    long b = new CoverageTask( mSplit ).compute();
+                    return a.join() + b;
+                }
+
+                final long[] sum = { 0 };
+                mSplit.forEachRemaining( new RangeVisitor() {
+                    @Override
+                    public boolean visit( long startMicros, long stopMicros ) {
+                        sum[0] += stopMicros - startMicros;
+                        return true;
+                    }
+                } );
+                return sum[0];
+            }
+        }
+
+        assertEquals( set.coveredMicros(), (long)new ForkJoinPool( 4 ).invoke( new CoverageTask( set.splitter() ) ) );
+
+        // Split halves preserve order.
+        TimeSet.Splitter b = set.splitter();
+        TimeSet.Splitter a = b.trySplit();
+        assertEquals( set.size(), a.estimateSize() + b.estimateSize() );
+
+        final List<TimeBlock> list = new ArrayList<TimeBlock>();
+        RangeVisitor collect = new RangeVisitor() {
+            @Override
+            public boolean visit( long startMicros, long stopMicros ) {
+                list.add( new TimeBlock( startMicros, stopMicros ) );
+                return true;
+            }
+        };
+        assertTrue( a.tryAdvance( collect ) );
+        assertTrue( a.forEachRemaining( collect ) );
+        assertFalse( a.tryAdvance( collect ) );
+        assertTrue( b.forEachRemaining( collect ) );
+        assertArrayEquals( set.toArray(), list.toArray() );
+    }
+
+    @Test
+    public void testBatchContains() {
+        Random rand = new Random( 8 );
+        TimeSet set = new TimeSet();
+        for( int i = 0; i < 300; i++ ) {
+            long a = rand.nextInt( 100000 );
+            set.add( a, a + 1 + rand.nextInt( 200 ) );
+        }
+
+        long[] times = new long[5000];
+        for( int i = 0; i < times.length; i++ ) {
+            times[i] = rand.nextInt( 102000 ) - 1000;
+        }
+        Arrays.sort( times );
+
+        boolean[] flags = new boolean[times.length];
+        BitSet bits = new BitSet();
+        int[] indices = new int[times.length];
+        int count = set.containsAll( times, flags );
+        assertEquals( count, set.containsAll( times, bits ) );
+        assertEquals( count, set.blockIndexOf( times, indices ) );
+
+        List<TimeBlock> blocks = new ArrayList<TimeBlock>( set );
+        int expectCount = 0;
+        for( int i = 0; i < times.length; i++ ) {
+            boolean hit = set.contains( times[i] );
+            expectCount += hit ? 1 : 0;
+            assertEquals( hit, flags[i] );
+            assertEquals( hit, bits.get( i ) );
+            assertEquals( set.blockIndexOf( times[i] ), indices[i] );
+            assertEquals( hit ? blocks.indexOf( set.blockContaining( times[i] ) ) : -1, indices[i] );
+        }
+        assertEquals( expectCount, count );
+
+        try {
+            set.containsAll( new long[]{ 5, 3 }, flags );
+            fail();
+        } catch( IllegalArgumentException ignored ) {}
+    }
+
+    @Test
+    public void testCursor() {
+        Random rand = new Random( 9 );
+        TimeSet set = new TimeSet();
+        for( int i = 0; i < 500; i++ ) {
+            long a = rand.nextInt( 100000 );
+            set.add( a, a + 1 + rand.nextInt( 150 ) );
+        }
+
+        TimeSet.Cursor cursor = set.cursor();
+        long t = -500;
+        for( int i = 0; i < 20000; i++ ) {
+            t += rand.nextInt( 20 ) - 4;
+            if( i % 1000 == 0 ) {
+                t = rand.nextInt( 101000 ) - 500;
+            }
+            if( i % 3000 == 0 ) {
+                long a = rand.nextInt( 100000 );
+                set.add( a, a + 1 + rand.nextInt( 150 ) );
+            }
+
+            TimeBlock block = set.blockContaining( t );
+            assertEquals( block != null, cursor.seek( t ) );
+            assertEquals( block != null, cursor.hasBlock() );
+            if( block != null ) {
+                assertEquals( block.startMicros(), cursor.startMicros() );
+                assertEquals( block.stopMicros(), cursor.stopMicros() );
+            }
+            assertEquals( block, cursor.blockContaining( t ) );
+        }
+
+        cursor.seek( -1000 );
+        try {
+            cursor.startMicros();
+            fail();
+        } catch( IllegalStateException ignored ) {}
+    }
+
+    @Test
+    public void testBucketCoverage() {
+        Random rand = new Random( 10 );
+        TimeSet set = new TimeSet();
+        for( int i = 0; i < 400; i++ ) {
+            long a = rand.nextInt( 1000000 );
+            set.add( a, a + 1 + rand.nextInt( 3000 ) );
+        }
+
+        int buckets = 333;
+        float[] out = new float[buckets + 2];
+        set.coverage( -5000, 1010000, buckets, out, 1 );
+        assertEquals( 0f, out[0], 0f );
+        assertEquals( 0f, out[buckets + 1], 0f );
+
+        long span = 1015000;
+        for( int i = 0; i < buckets; i++ ) {
+            long a = -5000 + span * i / buckets;
+            long b = -5000 + span * ( i + 1 ) / buckets;
+            assertEquals( (double)set.coveredMicros( a, b ) / ( b - a ), out[i + 1], 1e-6 );
+        }
+
+        set.add( -5000, 1010000 );
+        set.coverage( -5000, 1010000, buckets, out, 0 );
+        for( int i = 0; i < buckets; i++ ) {
+            assertEquals( 1f, out[i], 0f );
+        }
+
+        // Windows wider than Long.MAX_VALUE.
+        TimeSet half = new TimeSet();
+        half.add( 0, ( 1L << 62 ) + 1 );
+        out = new float[4];
+        half.coverage( -( 1L << 62 ) - 1, ( 1L << 62 ) + 1, 4, out, 0 );
+        assertArrayEquals( new float[]{ 0f, 0f, 1f, 1f }, out, 1e-6f );
+
+        TimeSet all = new TimeSet();
+        all.add( Long.MIN_VALUE, Long.MAX_VALUE );
+        all.coverage( Long.MIN_VALUE, Long.MAX_VALUE, 4, out, 0 );
+        assertArrayEquals( new float[]{ 1f, 1f, 1f, 1f }, out, 1e-6f );
+        half.coverage( Long.MIN_VALUE, Long.MAX_VALUE, 4, out, 0 );
+        assertArrayEquals( new float[]{ 0f, 0f, 1f, 0f }, out, 1e-6f );
+    }
+
+    @Test
+    public void testChangeListener() {
+        Random rand = new Random( 11 );
+        TimeSet set = new TimeSet();
+        final TimeSet mirror = new TimeSet();
+        final long[] delta = { 0 };
+
+        set.addChangeListener( new TimeSet.ChangeListener() {
+            @Override
+            public void rangeAdded( TimeSet source, long startMicros, long stopMicros ) {
+                // Deltas must be net: added time was not covered before.
+                assertEquals( 0, mirror.coveredMicros( startMicros, stopMicros ) );
+                mirror.add( startMicros, stopMicros );
+                delta[0] += stopMicros - startMicros;
+            }
+
+            @Override
+            public void rangeRemoved( TimeSet source, long startMicros, long stopMicros ) {
+                assertTrue( mirror.contains( startMicros, stopMicros ) );
+                mirror.remove( startMicros, stopMicros );
+                delta[0] += stopMicros - startMicros;
+            }
+        } );
+
+        for( int i = 0; i < 3000; i++ ) {
+            long a = rand.nextInt( 10000 );
+            long b = a + 1 + rand.nextInt( 200 );
+            long before = set.coveredMicros();
+            TimeSet prev = TimeSet.union( set, new TimeSet() );
+            delta[0] = 0;
+
+            switch( rand.nextInt( 8 ) ) {
+            case 0:
+                set.remove( a, b );
+                break;
+            case 1:
+                set.symmetricDifference( randomSet( rand, 5 ) );
+                break;
+            case 2:
+                Iterator<TimeBlock> iter = set.iterator( a, b );
+                if( iter.hasNext() ) {
+                    iter.next();
+                    iter.remove();
+                }
+                break;
+            case 3:
+                if( i % 500 == 3 ) {
+                    set.clear();
+                }
+                break;
+            default:
+                set.add( a, b );
+                break;
+            }
+
+            assertEquals( set, mirror );
+            // Total reported change equals size of symmetric difference.
+            assertEquals( TimeSet.symmetricDifference( prev, set ).coveredMicros(), delta[0] );
+            assertTrue( delta[0] >= Math.abs( set.coveredMicros() - before ) );
+        }
+    }
+
+    @Test
+    public void testCoalesceAndBound() {
+        Random rand = new Random( 12 );
+        TimeSet plain = new TimeSet();
+        TimeSet set = new TimeSet();
+        set.setCoalesceGap( 5 );
+
+        for( int i = 0; i < 2000; i++ ) {
+            long a = rand.nextInt( 100000 );
+            long b = a + 1 + rand.nextInt( 50 );
+            plain.add( a, b );
+            set.add( a, b );
+
+            TimeBlock gap = set.smallestGap();
+            assertTrue( gap == null || gap.stopMicros() - gap.startMicros() >= 5 );
+            assertEquals( set, TimeSet.union( set, plain ) );
+        }
+        assertTrue( set.size() < plain.size() );
+
+        // Bounded mode must always close the smallest gap.
+        set.setCoalesceGap( 0 );
+        set.setMaxBlocks( 100 );
+        assertEquals( 100, set.size() );
+        for( int i = 0; i < 2000; i++ ) {
+            long a = rand.nextInt( 100000 );
+            long b = a + 1 + rand.nextInt( 50 );
+            if( rand.nextInt( 4 ) == 0 ) {
+                set.remove( a, b );
+            } else {
+                set.add( a, b );
+            }
+            assertTrue( set.size() <= 100 );
+            assertEquals( bruteSmallestGap( set ), set.smallestGap() );
+        }
+
+        TimeSet small = new TimeSet();
+        small.add( 0, 10 );
+        small.add( 13, 20 );
+        small.add( 30, 40 );
+        small.add( 42, 50 );
+        assertEquals( new TimeBlock( 40, 42 ), small.smallestGap() );
+        small.setMaxBlocks( 2 );
+        assertEquals( TimeSet.fromArrays( new long[]{ 0, 30 }, new long[]{ 20, 50 } ), small );
+    }
+
+    @Test
+    public void testSplitJoin() {
+        Random rand = new Random( 13 );
+        for( int trial = 0; trial < 200; trial++ ) {
+            TimeSet set = randomSet( rand, rand.nextInt( 300 ) );
+            TimeSet orig = TimeSet.union( set, new TimeSet() );
+            long t = rand.nextInt( 10200 ) - 100;
+
+            TimeSet tail = set.splitAt( t );
+            assertEquals( TimeSet.intersection( orig, TimeSet.fromArrays( new long[]{ Long.MIN_VALUE }, new long[]{ t } ) ), set );
+            assertEquals( TimeSet.difference( orig, set ), tail );
+            assertValid( set );
+            assertValid( tail );
+
+            // Split sets must remain fully functional.
+            TimeSet copy = TimeSet.union( tail, new TimeSet() );
+            long a = t + rand.nextInt( 500 );
+            tail.add( a, a + 20 );
+            copy.add( a, a + 20 );
+            tail.remove( a + 5, a + 10 );
+            copy.remove( a + 5, a + 10 );
+            assertEquals( copy, tail );
+
+            assertEquals( !copy.isEmpty(), set.join( tail ) );
+            assertTrue( tail.isEmpty() );
+            assertEquals( TimeSet.union( TimeSet.intersection( orig, TimeSet.fromArrays( new long[]{ Long.MIN_VALUE }, new long[]{ t } ) ), copy ), set );
+            assertValid( set );
+
+            TimeSet before = TimeSet.union( set, new TimeSet() );
+            long r = rand.nextInt( 10200 ) - 100;
+            before.remove( r, Long.MAX_VALUE );
+            TimeSet after = TimeSet.union( set, new TimeSet() );
+            after.remove( Long.MIN_VALUE, r );
+            TimeSet s2 = TimeSet.union( set, new TimeSet() );
+            set.retainBefore( r );
+            s2.retainAfter( r );
+            assertEquals( before, set );
+            assertEquals( after, s2 );
+            assertValid( set );
+            assertValid( s2 );
+        }
+
+        TimeSet a = TimeSet.fromArrays( new long[]{ 0 }, new long[]{ 10 } );
+        a.join( TimeSet.fromArrays( new long[]{ 10, 20 }, new long[]{ 15, 30 } ) );
+        assertEquals( TimeSet.fromArrays( new long[]{ 0, 20 }, new long[]{ 15, 30 } ), a );
+        try {
+            a.join( TimeSet.fromArrays( new long[]{ 29 }, new long[]{ 40 } ) );
+            fail();
+        } catch( IllegalArgumentException ignored ) {}
+
+        // Join must report removal from other, and close a short gap at the seam.
+        final List<TimeBlock> removed = new ArrayList<TimeBlock>();
+        final List<TimeBlock> added   = new ArrayList<TimeBlock>();
+        TimeSet b = TimeSet.fromArrays( new long[]{ 32, 50 }, new long[]{ 40, 60 } );
+        b.addChangeListener( new TimeSet.ChangeListener() {
+            @Override
+            public void rangeAdded( TimeSet source, long startMicros, long stopMicros ) {
+                fail();
+            }
+
+            @Override
+            public void rangeRemoved( TimeSet source, long startMicros, long stopMicros ) {
+                removed.add( new TimeBlock( startMicros, stopMicros ) );
+            }
+        } );
+        a.addChangeListener( new TimeSet.ChangeListener() {
+            @Override
+            public void rangeAdded( TimeSet source, long startMicros, long stopMicros ) {
+                added.add( new TimeBlock( startMicros, stopMicros ) );
+            }
+
+            @Override
+            public void rangeRemoved( TimeSet source, long startMicros, long stopMicros ) {
+                fail();
+            }
+        } );
+        a.setCoalesceGap( 5 );
+        assertTrue( a.join( b ) );
+        assertTrue( b.isEmpty() );
+        assertEquals( Arrays.asList( new TimeBlock( 32, 40 ), new TimeBlock( 50, 60 ) ), removed );
+        assertEquals( Arrays.asList( new TimeBlock( 32, 40 ), new TimeBlock( 50, 60 ), new TimeBlock( 30, 32 ) ), added );
+        assertEquals( TimeSet.fromArrays( new long[]{ 0, 20, 50 }, new long[]{ 15, 40, 60 } ), a );
+        assertValid( a );
+    }
+
+    @Test
+    public void testDiff() {
+        Random rand = new Random( 14 );
+        for( int trial = 0; trial < 200; trial++ ) {
+            TimeSet a = randomSet( rand, rand.nextInt( 200 ) );
+            TimeSet b = trial % 2 == 0 ? randomSet( rand, rand.nextInt( 200 ) ) : TimeSet.union( a, new TimeSet() );
+            for( int i = 0; i < 5; i++ ) {
+                long t = rand.nextInt( 10000 );
+                if( rand.nextBoolean() ) {
+                    b.add( t, t + rand.nextInt( 100 ) );
+                } else {
+                    b.remove( t, t + rand.nextInt( 100 ) );
+                }
+            }
+
+            final List<TimeBlock> added   = new ArrayList<TimeBlock>();
+            final List<TimeBlock> removed = new ArrayList<TimeBlock>();
+            assertTrue( a.diff( b, new DiffVisitor() {
+                @Override
+                public boolean added( long startMicros, long stopMicros ) {
+                    added.add( new TimeBlock( startMicros, stopMicros ) );
+                    return true;
+                }
+
+                @Override
+                public boolean removed( long startMicros, long stopMicros ) {
+                    removed.add( new TimeBlock( startMicros, stopMicros ) );
+                    return true;
+                }
+            } ) );
+
+            assertEquals( new ArrayList<TimeBlock>( TimeSet.difference( b, a ) ), added );
+            assertEquals( new ArrayList<TimeBlock>( TimeSet.difference( a, b ) ), removed );
+        }
+    }
+
+    private static TimeSet randomSet( Random rand, int count ) {
+        TimeSet set = new TimeSet();
+        for( int i = 0; i < count; i++ ) {
+            long a = rand.nextInt( 10000 );
+            set.add( a, a + 1 + rand.nextInt( 100 ) );
+        }
+        return set;
+    }
+
+    private static TimeBlock bruteSmallestGap( TimeSet set ) {
+        TimeBlock best = null;
+        TimeBlock prev = null;
+        for( TimeBlock b : set ) {
+            if( prev != null && ( best == null || b.startMicros() - prev.stopMicros() < best.stopMicros() - best.startMicros() ) ) {
+                best = new TimeBlock( prev.stopMicros(), b.startMicros() );
+            }
+            prev = b;
+        }
+        return best;
+    }
+
+    /**
+     * Checks aggregates and ordering against a scan of the blocks.
+     */
+    private static void assertValid( TimeSet set ) {
+        List<TimeBlock> blocks = new ArrayList<TimeBlock>( set );
+        assertEquals( blocks.size(), set.size() );
+        long covered = 0;
+        for( int i = 0; i < blocks.size(); i++ ) {
+            TimeBlock b = blocks.get( i );
+            assertTrue( b.startMicros() < b.stopMicros() );
+            if( i > 0 ) {
+                assertTrue( blocks.get( i - 1 ).stopMicros() < b.startMicros() );
+            }
+            covered += b.stopMicros() - b.startMicros();
+        }
+        assertEquals( covered, set.coveredMicros() );
+        assertEquals( bruteSmallestGap( set ), set.smallestGap() );
+        if( !blocks.isEmpty() ) {
+            assertEquals( new TimeBlock( blocks.get( 0 ).startMicros(), blocks.get( blocks.size() - 1 ).stopMicros() ), set.range() );
+            TimeBlock mid = blocks.get( blocks.size() / 2 );
+            assertEquals( blocks.size() / 2, set.countIn( Long.MIN_VALUE, mid.startMicros() ) );
+        }
+    }
+
+    @Test
+    public void testBulkConstruction() {
+        Random rand = new Random( 2 );
+        int n = 2000;
+        long[] starts = new long[n];
+        long[] stops  = new long[n];
+        List<TimeBlock> blocks = new ArrayList<TimeBlock>();
+        TimeSet expect = new TimeSet();
+
+        for( int i = 0; i < n; i++ ) {
+            starts[i] = rand.nextInt( 100000 );
+            stops[i]  = starts[i] + rand.nextInt( 100 ) - 10;
+            expect.add( starts[i], stops[i] );
+            if( stops[i] >= starts[i] ) {
+                blocks.add( new TimeBlock( starts[i], stops[i] ) );
+            }
+        }
+
+        assertArrayEquals( expect.toArray(), TimeSet.fromArrays( starts, stops ).toArray() );
+        assertArrayEquals( expect.toArray(), TimeSet.fromBlocks( blocks.iterator() ).toArray() );
+
+        Collections.sort( blocks );
+        TimeSet set = TimeSet.fromBlocks( blocks );
+        assertArrayEquals( expect.toArray(), set.toArray() );
+        assertEquals( expect.size(), set.size() );
+
+        set.remove( 0, 50000 );
+        expect.remove( 0, 50000 );
+        assertArrayEquals( expect.toArray(), set.toArray() );
+
+        assertTrue( TimeSet.fromArrays( new long[0], new long[0] ).isEmpty() );
+        assertEquals( 1, TimeSet.fromArrays( new long[]{ 5, 0 }, new long[]{ 10, 5 } ).size() );
+    }
+
 }
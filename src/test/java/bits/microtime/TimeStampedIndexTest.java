@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2015. Massachusetts Institute of Technology
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.microtime;
+
+import java.util.*;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author Philip DeCamp
+ */
+public class TimeStampedIndexTest {
+
+    @Test
+    public void testAgainstSortedList() {
+        Random rand = new Random( 14 );
+        TimeStampedIndex<TimeBlock> index = new TimeStampedIndex<TimeBlock>();
+        List<TimeBlock> expect = new ArrayList<TimeBlock>();
+
+        long t = 0;
+        for( int i = 0; i < 3000; i++ ) {
+            // Mostly in-order, with occasional late arrivals.
+            t += rand.nextInt( 10 );
+            long start = rand.nextInt( 20 ) == 0 ? t - rand.nextInt( 500 ) : t;
+            TimeBlock b = new TimeBlock( start, start + i );
+            index.add( b );
+            expect.add( b );
+        }
+
+        // Stable sort keeps equal start times in insertion order, as the index does.
+        Collections.sort( expect, TimeStamped.START_TIME_ORDER );
+        assertEquals( expect, index );
+
+        for( int i = 0; i < 500; i++ ) {
+            long a = rand.nextInt( (int)t + 200 ) - 100;
+            long b = a + rand.nextInt( 300 );
+
+            List<TimeBlock> range = new ArrayList<TimeBlock>();
+            TimeBlock floor = null;
+            TimeBlock ceiling = null;
+            for( TimeBlock item : expect ) {
+                if( item.startMicros() >= a && item.startMicros() < b ) {
+                    range.add( item );
+                }
+                if( item.startMicros() <= a ) {
+                    floor = item;
+                }
+                if( ceiling == null && item.startMicros() >= a ) {
+                    ceiling = item;
+                }
+            }
+
+            assertEquals( range, index.range( a, b ) );
+            assertSame( floor, index.floor( a ) );
+            assertSame( ceiling, index.ceiling( a ) );
+
+            TimeBlock near = index.nearest( a );
+            long best = Long.MAX_VALUE;
+            for( TimeBlock item : expect ) {
+                best = Math.min( best, Math.abs( item.startMicros() - a ) );
+            }
+            assertEquals( best, Math.abs( near.startMicros() - a ) );
+        }
+    }
+
+
+    @Test
+    public void testViews() {
+        TimeStampedIndex<TimeBlock> index = new TimeStampedIndex<TimeBlock>();
+        for( int i = 0; i < 10; i++ ) {
+            index.add( new TimeBlock( i * 10, i * 10 + 5 ) );
+        }
+
+        List<TimeBlock> view = index.range( 20, 50 );
+        assertEquals( 3, view.size() );
+        view.remove( 0 );
+        assertEquals( 9, index.size() );
+        assertEquals( 30, index.ceiling( 20 ).startMicros() );
+        assertEquals( 4, index.headList( 50 ).size() );
+        assertEquals( 5, index.tailList( 50 ).size() );
+        assertEquals( 0, index.nearestIndex( -100 ) );
+        assertEquals( 8, index.nearestIndex( 1000 ) );
+
+        view = index.tailList( 0 );
+        index.add( new TimeBlock( 5, 6 ) );
+        try {
+            view.size();
+            fail();
+        } catch( ConcurrentModificationException ignored ) {}
+    }
+
+    @Test
+    public void testNearestAtExtremes() {
+        TimeStampedIndex<TimeBlock> index = new TimeStampedIndex<TimeBlock>();
+        index.add( new TimeBlock( Long.MIN_VALUE, Long.MIN_VALUE + 1 ) );
+        index.add( new TimeBlock( Long.MAX_VALUE - 1, Long.MAX_VALUE ) );
+        // Distances here exceed Long.MAX_VALUE.
+        assertEquals( 1, index.nearestIndex( 0 ) );
+        assertEquals( 0, index.nearestIndex( -2 ) );
+        assertEquals( 0, index.nearestIndex( -1 ) );
+    }
+
+}